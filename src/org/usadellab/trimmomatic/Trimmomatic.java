@@ -7,6 +7,7 @@ public class Trimmomatic
 {
 
 	private static final int MAX_AUTO_THREADS=16;
+	private static final int THREADS_PER_PARSER=4;
 
 	public static int calcAutoThreadCount()
 	{
@@ -18,6 +19,26 @@ public class Trimmomatic
 		return cpus;
 	}
 
+	/**
+	 * Number of threads used to parse each uncompressed input, so parsing keeps up with the trimming threads
+	 */
+	public static int calcParserThreadCount(int threads, int inputs)
+	{
+		int parserThreads=threads/(THREADS_PER_PARSER*inputs);
+
+		return parserThreads>1 ? parserThreads : 1;
+	}
+
+	/**
+	 * Number of threads used to compress each output, if not set on the command line
+	 */
+	public static int calcCompressionThreadCount(int threads, int outputs)
+	{
+		int compressionThreads=threads/outputs;
+
+		return compressionThreads>1 ? compressionThreads : 1;
+	}
+
 	/**
 	 * @param args
 	 */
@@ -45,9 +66,9 @@ public class Trimmomatic
 		if(showUsage)
 			{
 			System.err.println("Usage: ");
-			System.err.println("       PE [-threads <threads>] [-phred33|-phred64] [-trimlog <trimLogFile>] [-basein <inputBase> | <inputFile1> <inputFile2>] [-baseout <outputBase> | <outputFile1P> <outputFile1U> <outputFile2P> <outputFile2U>] <trimmer1>...");
+			System.err.println("       PE [-threads <threads>] [-compressthreads <threads>] [-bgzf] [-phred33|-phred64] [-trimlog <trimLogFile>] [-basein <inputBase> | <inputFile1> <inputFile2>] [-baseout <outputBase> | <outputFile1P> <outputFile1U> <outputFile2P> <outputFile2U>] <trimmer1>...");
 			System.err.println("   or: ");
-			System.err.println("       SE [-threads <threads>] [-phred33|-phred64] [-trimlog <trimLogFile>] <inputFile> <outputFile> <trimmer1>...");
+			System.err.println("       SE [-threads <threads>] [-compressthreads <threads>] [-bgzf] [-phred33|-phred64] [-trimlog <trimLogFile>] <inputFile> <outputFile> <trimmer1>...");
 			System.exit(1);
 			}
 	}
@@ -3,22 +3,25 @@ package org.usadellab.trimmomatic;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.usadellab.trimmomatic.fastq.FastqBlock;
 import org.usadellab.trimmomatic.fastq.FastqParser;
 import org.usadellab.trimmomatic.fastq.FastqRecord;
 import org.usadellab.trimmomatic.fastq.FastqSerializer;
 import org.usadellab.trimmomatic.threading.BlockOfRecords;
+import org.usadellab.trimmomatic.threading.BlockOfRecordsPool;
 import org.usadellab.trimmomatic.threading.BlockOfWork;
+import org.usadellab.trimmomatic.threading.BlockPool;
 import org.usadellab.trimmomatic.threading.ParserWorker;
 import org.usadellab.trimmomatic.threading.SerializerWorker;
 import org.usadellab.trimmomatic.threading.TrimLogWorker;
 import org.usadellab.trimmomatic.threading.TrimStatsWorker;
 import org.usadellab.trimmomatic.trim.Trimmer;
+import org.usadellab.trimmomatic.trim.TrimmerChain;
 import org.usadellab.trimmomatic.trim.TrimmerFactory;
 
 public class TrimmomaticPE extends Trimmomatic
@@ -48,27 +51,27 @@ public class TrimmomaticPE extends Trimmomatic
 	{
 		TrimStats stats = new TrimStats();
 
+		TrimmerChain chain = new TrimmerChain(trimmers);
+
 		FastqRecord originalRecs[] = new FastqRecord[2];
 		FastqRecord recs[] = new FastqRecord[2];
+		int windows[][] = new int[2][2];
 
 		while (parser1.hasNext() && parser2.hasNext())
 			{
-			originalRecs[0] = recs[0] = parser1.next();
-			originalRecs[1] = recs[1] = parser2.next();
+			originalRecs[0] = parser1.next();
+			originalRecs[1] = parser2.next();
 
-			for (int i = 0; i < trimmers.length; i++)
+			try
 				{
-				try
-					{
-					recs = trimmers[i].processRecords(recs);
-					}
-				catch (RuntimeException e)
-					{
-					System.err.println("Exception processing reads: " + originalRecs[0].getName() + " and "
-							+ originalRecs[1].getName());
-					e.printStackTrace();
-					throw e;
-					}
+				chain.processRecords(originalRecs, recs, windows);
+				}
+			catch (RuntimeException e)
+				{
+				System.err.println("Exception processing reads: " + originalRecs[0].getName() + " and "
+						+ originalRecs[1].getName());
+				e.printStackTrace();
+				throw e;
 				}
 
 			if (recs[0] != null && recs[1] != null)
@@ -94,10 +97,10 @@ public class TrimmomaticPE extends Trimmomatic
 
 					if (recs[i] != null)
 						{
-						length = recs[i].getSequence().length();
+						length = recs[i].getLength();
 						startPos = recs[i].getHeadPos();
 						endPos = length + startPos;
-						trimTail = originalRecs[i].getSequence().length() - endPos;
+						trimTail = originalRecs[i].getLength() - endPos;
 						}
 
 					trimLogStream.printf("%s %d %d %d %d\n", originalRecs[i].getName(), length, startPos, endPos,
@@ -113,8 +116,13 @@ public class TrimmomaticPE extends Trimmomatic
 			FastqSerializer serializer1U, FastqSerializer serializer2P, FastqSerializer serializer2U,
 			Trimmer trimmers[], PrintStream trimLogStream, int threads) throws IOException
 	{
-		ArrayBlockingQueue<List<FastqRecord>> parser1Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
-		ArrayBlockingQueue<List<FastqRecord>> parser2Queue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
+		ArrayBlockingQueue<FastqBlock> parser1Queue = new ArrayBlockingQueue<FastqBlock>(threads);
+		ArrayBlockingQueue<FastqBlock> parser2Queue = new ArrayBlockingQueue<FastqBlock>(threads);
+
+		// Enough free blocks to cover those waiting in the parser, task and serializer queues
+		BlockPool pool1 = new BlockPool(threads * 4 + 2, ParserWorker.BLOCKSIZE);
+		BlockPool pool2 = new BlockPool(threads * 4 + 2, ParserWorker.BLOCKSIZE);
+		BlockOfRecordsPool recordsPool = new BlockOfRecordsPool(threads * 4 + 2);
 
 		ArrayBlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<Runnable>(threads);
 
@@ -127,8 +135,8 @@ public class TrimmomaticPE extends Trimmomatic
 		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue2U = new ArrayBlockingQueue<Future<BlockOfRecords>>(
 				threads);
 
-		ParserWorker parserWorker1 = new ParserWorker(parser1, parser1Queue);
-		ParserWorker parserWorker2 = new ParserWorker(parser2, parser2Queue);
+		ParserWorker parserWorker1 = new ParserWorker(parser1, parser1Queue, pool1);
+		ParserWorker parserWorker2 = new ParserWorker(parser2, parser2Queue, pool2);
 
 		Thread parser1Thread = new Thread(parserWorker1);
 		Thread parser2Thread = new Thread(parserWorker2);
@@ -174,8 +182,13 @@ public class TrimmomaticPE extends Trimmomatic
 
 		boolean done1 = false, done2 = false;
 
-		List<FastqRecord> recs1 = null;
-		List<FastqRecord> recs2 = null;
+		FastqBlock recs1 = null;
+		FastqBlock recs2 = null;
+
+		// Each block is released by the four serializers, the stats worker and the trimlog worker
+		int references = 5 + (trimLogStream != null ? 1 : 0);
+
+		FastqSerializer serializers[] = { serializer1P, serializer1U, serializer2P, serializer2U };
 
 		try
 			{
@@ -200,8 +213,9 @@ public class TrimmomaticPE extends Trimmomatic
 						done2 = true;
 					}
 
-				BlockOfRecords bor = new BlockOfRecords(recs1, recs2);
-				BlockOfWork work = new BlockOfWork(trimmers, bor, true, trimLogStream != null);
+				BlockOfRecords bor = recordsPool.take(recs1, recs2);
+				bor.setRecycling(pool1, pool2, recordsPool, references);
+				BlockOfWork work = new BlockOfWork(trimmers, bor, true, trimLogStream != null, serializers);
 
 				while (taskQueue.remainingCapacity() < 1)
 					Thread.sleep(100);
@@ -246,12 +260,16 @@ public class TrimmomaticPE extends Trimmomatic
 	}
 
 	public void process(File input1, File input2, File output1P, File output1U, File output2P, File output2U,
-			Trimmer trimmers[], int phredOffset, File trimLog, int threads) throws IOException
+			Trimmer trimmers[], int phredOffset, File trimLog, int threads, int compressThreads, boolean bgzf) throws IOException
 	{
 		FastqParser parser1 = new FastqParser(phredOffset);
+		parser1.setParserThreads(calcParserThreadCount(threads, 2));
+		parser1.setReadAhead(threads > 1);
 		parser1.parse(input1);
 
 		FastqParser parser2 = new FastqParser(phredOffset);
+		parser2.setParserThreads(calcParserThreadCount(threads, 2));
+		parser2.setReadAhead(threads > 1);
 		parser2.parse(input2);
 
 		if(phredOffset==0)
@@ -273,15 +291,23 @@ public class TrimmomaticPE extends Trimmomatic
 			}
 		
 		FastqSerializer serializer1P = new FastqSerializer();
+		serializer1P.setCompressionThreads(compressThreads);
+		serializer1P.setBGZF(bgzf);
 		serializer1P.open(output1P);
 
 		FastqSerializer serializer1U = new FastqSerializer();
+		serializer1U.setCompressionThreads(compressThreads);
+		serializer1U.setBGZF(bgzf);
 		serializer1U.open(output1U);
 
 		FastqSerializer serializer2P = new FastqSerializer();
+		serializer2P.setCompressionThreads(compressThreads);
+		serializer2P.setBGZF(bgzf);
 		serializer2P.open(output2P);
 
 		FastqSerializer serializer2U = new FastqSerializer();
+		serializer2U.setCompressionThreads(compressThreads);
+		serializer2U.setBGZF(bgzf);
 		serializer2U.open(output2U);
 
 		PrintStream trimLogStream = null;
@@ -308,7 +334,7 @@ public class TrimmomaticPE extends Trimmomatic
 	
 	private static int getFileExtensionIndex(String str)
 	{
-		String extensions[]={".fq",".fastq",".txt",".gz",".bz2",".zip"};
+		String extensions[]={".fq",".fastq",".txt",".gz",".bgz",".bz2",".zip"};
 	
 		String tmp=str;
 		boolean done=false;
@@ -387,6 +413,8 @@ public class TrimmomaticPE extends Trimmomatic
 		int argIndex = 0;
 		int phredOffset = 0;
 		int threads = 0;
+		int compressThreads = 0;
+		boolean bgzf = false;
 
 		String templateInput=null;
 		String templateOutput=null;
@@ -404,6 +432,10 @@ public class TrimmomaticPE extends Trimmomatic
 				phredOffset = 64;
 			else if (arg.equals("-threads"))
 				threads = Integer.parseInt(args[argIndex++]);
+			else if (arg.equals("-compressthreads"))
+				compressThreads = Integer.parseInt(args[argIndex++]);
+			else if (arg.equals("-bgzf"))
+				bgzf = true;
 			else if (arg.equals("-trimlog"))
 				{
 				if (argIndex < args.length)
@@ -449,6 +481,9 @@ public class TrimmomaticPE extends Trimmomatic
 				System.err.println("Multiple cores found: Using "+threads+" threads");
 			}
 
+		if(compressThreads==0)
+			compressThreads=calcCompressionThreadCount(threads, 4);
+
 		File inputs[],outputs[];
 		
 		if(templateInput!=null)
@@ -495,8 +530,10 @@ public class TrimmomaticPE extends Trimmomatic
 		for (int i = 0; i < trimmers.length; i++)
 			trimmers[i] = fac.makeTrimmer(args[i + argIndex]);
 
+		trimmers = fac.fuseTrimmers(trimmers);
+
 		TrimmomaticPE tm = new TrimmomaticPE();
-		tm.process(inputs[0], inputs[1], outputs[0], outputs[1], outputs[2], outputs[3], trimmers, phredOffset, trimLog, threads);
+		tm.process(inputs[0], inputs[1], outputs[0], outputs[1], outputs[2], outputs[3], trimmers, phredOffset, trimLog, threads, compressThreads, bgzf);
 
 		System.err.println("TrimmomaticPE: Completed successfully");
 		return true;
@@ -3,22 +3,25 @@ package org.usadellab.trimmomatic;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.usadellab.trimmomatic.fastq.FastqBlock;
 import org.usadellab.trimmomatic.fastq.FastqParser;
 import org.usadellab.trimmomatic.fastq.FastqRecord;
 import org.usadellab.trimmomatic.fastq.FastqSerializer;
 import org.usadellab.trimmomatic.threading.BlockOfRecords;
+import org.usadellab.trimmomatic.threading.BlockOfRecordsPool;
 import org.usadellab.trimmomatic.threading.BlockOfWork;
+import org.usadellab.trimmomatic.threading.BlockPool;
 import org.usadellab.trimmomatic.threading.ParserWorker;
 import org.usadellab.trimmomatic.threading.SerializerWorker;
 import org.usadellab.trimmomatic.threading.TrimLogWorker;
 import org.usadellab.trimmomatic.threading.TrimStatsWorker;
 import org.usadellab.trimmomatic.trim.Trimmer;
+import org.usadellab.trimmomatic.trim.TrimmerChain;
 import org.usadellab.trimmomatic.trim.TrimmerFactory;
 
 public class TrimmomaticSE extends Trimmomatic
@@ -47,24 +50,24 @@ public class TrimmomaticSE extends Trimmomatic
 	{
 		TrimStats stats = new TrimStats();
 
+		TrimmerChain chain = new TrimmerChain(trimmers);
+
 		FastqRecord recs[] = new FastqRecord[1];
 		FastqRecord originalRecs[] = new FastqRecord[1];
+		int windows[][] = new int[1][2];
 
 		while (parser.hasNext())
 			{
-			originalRecs[0] = recs[0] = parser.next();
+			originalRecs[0] = parser.next();
 
-			for (int i = 0; i < trimmers.length; i++)
+			try
 				{
-				try
-					{
-					recs = trimmers[i].processRecords(recs);
-					}
-				catch (RuntimeException e)
-					{
-					System.err.println("Exception processing read: " + originalRecs[0].getName());
-					throw e;
-					}
+				chain.processRecords(originalRecs, recs, windows);
+				}
+			catch (RuntimeException e)
+				{
+				System.err.println("Exception processing read: " + originalRecs[0].getName());
+				throw e;
 				}
 
 			if (recs[0] != null)
@@ -85,10 +88,10 @@ public class TrimmomaticSE extends Trimmomatic
 
 					if (recs[i] != null)
 						{
-						length = recs[i].getSequence().length();
+						length = recs[i].getLength();
 						startPos = recs[i].getHeadPos();
 						endPos = length + startPos;
-						trimTail = originalRecs[i].getSequence().length() - endPos;
+						trimTail = originalRecs[i].getLength() - endPos;
 						}
 
 					trimLogStream.printf("%s %d %d %d %d\n", originalRecs[i].getName(), length, startPos, endPos,
@@ -103,12 +106,16 @@ public class TrimmomaticSE extends Trimmomatic
 	public void processMultiThreaded(FastqParser parser, FastqSerializer serializer, Trimmer trimmers[],
 			PrintStream trimLogStream, int threads) throws IOException
 	{
-		ArrayBlockingQueue<List<FastqRecord>> parserQueue = new ArrayBlockingQueue<List<FastqRecord>>(threads);
+		ArrayBlockingQueue<FastqBlock> parserQueue = new ArrayBlockingQueue<FastqBlock>(threads);
 		ArrayBlockingQueue<Runnable> taskQueue = new ArrayBlockingQueue<Runnable>(threads * 2);
 		ArrayBlockingQueue<Future<BlockOfRecords>> serializerQueue = new ArrayBlockingQueue<Future<BlockOfRecords>>(
 				threads * 5);
 
-		ParserWorker parserWorker = new ParserWorker(parser, parserQueue);
+		// Enough free blocks to cover those waiting in the parser, task and serializer queues
+		BlockPool pool = new BlockPool(threads * 9 + 2, ParserWorker.BLOCKSIZE);
+		BlockOfRecordsPool recordsPool = new BlockOfRecordsPool(threads * 9 + 2);
+
+		ParserWorker parserWorker = new ParserWorker(parser, parserQueue, pool);
 		Thread parserThread = new Thread(parserWorker);
 		ThreadPoolExecutor taskExec = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, taskQueue);
 		SerializerWorker serializerWorker = new SerializerWorker(serializer, serializerQueue, 0);
@@ -137,7 +144,12 @@ public class TrimmomaticSE extends Trimmomatic
 
 		boolean done = false;
 
-		List<FastqRecord> recs1 = null;
+		FastqBlock recs1 = null;
+
+		// Each block is released by the serializer, the stats worker and the trimlog worker
+		int references = 2 + (trimLogStream != null ? 1 : 0);
+
+		FastqSerializer serializers[] = { serializer };
 
 		try
 			{
@@ -150,8 +162,9 @@ public class TrimmomaticSE extends Trimmomatic
 				if (recs1 == null || recs1.size() == 0)
 					done = true;
 
-				BlockOfRecords bor = new BlockOfRecords(recs1, null);
-				BlockOfWork work = new BlockOfWork(trimmers, bor, false, trimLogStream != null);
+				BlockOfRecords bor = recordsPool.take(recs1, null);
+				bor.setRecycling(pool, null, recordsPool, references);
+				BlockOfWork work = new BlockOfWork(trimmers, bor, false, trimLogStream != null, serializers);
 
 				while (taskQueue.remainingCapacity() < 1)
 					Thread.sleep(100);
@@ -185,10 +198,12 @@ public class TrimmomaticSE extends Trimmomatic
 
 	}
 
-	public void process(File input, File output, Trimmer trimmers[], int phredOffset, File trimLog, int threads)
-			throws IOException
+	public void process(File input, File output, Trimmer trimmers[], int phredOffset, File trimLog, int threads,
+			int compressThreads, boolean bgzf) throws IOException
 	{
 		FastqParser parser = new FastqParser(phredOffset);
+		parser.setParserThreads(calcParserThreadCount(threads, 1));
+		parser.setReadAhead(threads > 1);
 		parser.parse(input);
 
 		if(phredOffset==0)
@@ -207,6 +222,8 @@ public class TrimmomaticSE extends Trimmomatic
 			}
 		
 		FastqSerializer serializer = new FastqSerializer();
+		serializer.setCompressionThreads(compressThreads);
+		serializer.setBGZF(bgzf);
 		serializer.open(output);
 
 		PrintStream trimLogStream = null;
@@ -229,6 +246,8 @@ public class TrimmomaticSE extends Trimmomatic
 		int argIndex = 0;
 		int phredOffset = 0;
 		int threads = 0;
+		int compressThreads = 0;
+		boolean bgzf = false;
 
 		boolean badOption = false;
 
@@ -243,6 +262,10 @@ public class TrimmomaticSE extends Trimmomatic
 				phredOffset = 64;
 			else if (arg.equals("-threads"))
 				threads = Integer.parseInt(args[argIndex++]);
+			else if (arg.equals("-compressthreads"))
+				compressThreads = Integer.parseInt(args[argIndex++]);
+			else if (arg.equals("-bgzf"))
+				bgzf = true;
 			else if (arg.equals("-trimlog"))
 				{
 				if (argIndex < args.length)
@@ -270,6 +293,9 @@ public class TrimmomaticSE extends Trimmomatic
 			threads=calcAutoThreadCount();
 			System.err.println("Automatically using "+threads+" threads");
 			}
+
+		if(compressThreads==0)
+			compressThreads=calcCompressionThreadCount(threads, 1);
 		
 		
 		File input = new File(args[argIndex++]);
@@ -281,8 +307,10 @@ public class TrimmomaticSE extends Trimmomatic
 		for (int i = 0; i < trimmers.length; i++)
 			trimmers[i] = fac.makeTrimmer(args[i + argIndex]);
 
+		trimmers = fac.fuseTrimmers(trimmers);
+
 		TrimmomaticSE tm = new TrimmomaticSE();
-		tm.process(input, output, trimmers, phredOffset, trimLog, threads);
+		tm.process(input, output, trimmers, phredOffset, trimLog, threads, compressThreads, bgzf);
 
 		System.err.println("TrimmomaticSE: Completed successfully");
 		return true;
@@ -293,7 +321,7 @@ public class TrimmomaticSE extends Trimmomatic
 		if(!run(args))
 			{
 			System.err
-					.println("Usage: TrimmomaticSE [-threads <threads>] [-phred33|-phred64] [-trimlog <trimLogFile>] <inputFile> <outputFile> <trimmer1>...");
+					.println("Usage: TrimmomaticSE [-threads <threads>] [-compressthreads <threads>] [-bgzf] [-phred33|-phred64] [-trimlog <trimLogFile>] <inputFile> <outputFile> <trimmer1>...");
 			System.exit(1);
 			}
 	}
@@ -0,0 +1,295 @@
+package org.usadellab.trimmomatic.fastq;
+
+import java.util.Arrays;
+
+import org.usadellab.trimmomatic.util.QualityKernels;
+
+/**
+ * A block of reads stored column-wise. Names and comments share one byte arena, sequences
+ * and qualities have an arena each, and every read is addressed by index through int
+ * offset and length arrays. Sequences, qualities and the decoded quality scores of a read
+ * all start at the same offset in their arenas.
+ *
+ * Reads can be trimmed in place by index, which only narrows their window, or dropped.
+ * FastqRecords are created on demand as views onto the arenas.
+ */
+public class FastqBlock
+{
+	private int size;
+	private int phredOffset;
+
+	private byte names[];
+	private int namesLength;
+	private int nameOffsets[];
+	private int nameLengths[];
+	private int commentOffsets[];
+	private int commentLengths[];
+
+	private byte sequences[];
+	private byte qualities[];
+	private int sequencesLength;
+
+	// Decoded on first use, by the trimming worker rather than whoever filled the block
+	private byte qualityScores[];
+	private boolean decoded;
+
+	// Window of each read when it was added, and its current window
+	private int startOffsets[];
+	private int startLengths[];
+	private int offsets[];
+	private int lengths[];
+	private int headPos[];
+	private boolean dropped[];
+
+	/**
+	 * An empty block with room for capacity reads. The arenas grow as needed, so a block
+	 * which is cleared and refilled settles at the size its reads need.
+	 */
+	public FastqBlock(int capacity)
+	{
+		nameOffsets=new int[capacity];
+		nameLengths=new int[capacity];
+		commentOffsets=new int[capacity];
+		commentLengths=new int[capacity];
+
+		startOffsets=new int[capacity];
+		startLengths=new int[capacity];
+		offsets=new int[capacity];
+		lengths=new int[capacity];
+		headPos=new int[capacity];
+		dropped=new boolean[capacity];
+
+		names=new byte[capacity*64];
+		sequences=new byte[capacity*128];
+		qualities=new byte[capacity*128];
+	}
+
+	/**
+	 * Empties this block so it can be refilled, keeping its arenas
+	 */
+	public void clear()
+	{
+		size=0;
+		namesLength=0;
+		sequencesLength=0;
+		decoded=false;
+	}
+
+	/**
+	 * Copies a record onto the end of this block. All records in a block must use the same phred offset.
+	 */
+	public void add(FastqRecord rec)
+	{
+		int length=rec.getLength();
+		int index=reserve(rec.getNameLength()+rec.getCommentLength(), length, rec.getPhredOffset());
+
+		nameOffsets[index]=namesLength;
+		namesLength=rec.copyName(names, namesLength);
+		nameLengths[index]=namesLength-nameOffsets[index];
+
+		commentOffsets[index]=namesLength;
+		namesLength=rec.copyComment(names, namesLength);
+		commentLengths[index]=namesLength-commentOffsets[index];
+
+		headPos[index]=rec.getHeadPos();
+
+		rec.copySequence(sequences, sequencesLength);
+		sequencesLength=rec.copyQuality(qualities, sequencesLength);
+	}
+
+	/**
+	 * Copies a parsed read straight out of the parser buffer onto the end of this block
+	 */
+	void add(byte data[], int nameOffset, int nameLength, int commentOffset, int commentLength,
+			int sequenceOffset, int qualityOffset, int length, int phredOffset)
+	{
+		int index=reserve(nameLength+commentLength, length, phredOffset);
+
+		copyNames(index, data, nameOffset, nameLength, commentOffset, commentLength);
+		headPos[index]=0;
+		copyBases(data, sequenceOffset, data, qualityOffset, length);
+	}
+
+	/**
+	 * Copies read i of another block, as it was added, onto the end of this block
+	 */
+	void add(FastqBlock block, int i, int phredOffset)
+	{
+		int length=block.startLengths[i];
+		int index=reserve(block.nameLengths[i]+block.commentLengths[i], length, phredOffset);
+
+		copyNames(index, block.names, block.nameOffsets[i], block.nameLengths[i], block.commentOffsets[i], block.commentLengths[i]);
+		headPos[index]=block.headPos[i]-(block.offsets[i]-block.startOffsets[i]);
+		copyBases(block.sequences, block.startOffsets[i], block.qualities, block.startOffsets[i], length);
+	}
+
+	private void copyNames(int index, byte data[], int nameOffset, int nameLength, int commentOffset, int commentLength)
+	{
+		nameOffsets[index]=namesLength;
+		nameLengths[index]=nameLength;
+		System.arraycopy(data, nameOffset, names, namesLength, nameLength);
+		namesLength+=nameLength;
+
+		commentOffsets[index]=namesLength;
+		commentLengths[index]=commentLength;
+		System.arraycopy(data, commentOffset, names, namesLength, commentLength);
+		namesLength+=commentLength;
+	}
+
+	private void copyBases(byte sequenceData[], int sequenceOffset, byte qualityData[], int qualityOffset, int length)
+	{
+		System.arraycopy(sequenceData, sequenceOffset, sequences, sequencesLength, length);
+		System.arraycopy(qualityData, qualityOffset, qualities, sequencesLength, length);
+		sequencesLength+=length;
+	}
+
+	/**
+	 * Makes room for one more read, and sets up everything but its names, head position and bases
+	 *
+	 * @return the index of the new read
+	 */
+	private int reserve(int nameSpace, int length, int phredOffset)
+	{
+		if(size==0)
+			this.phredOffset=phredOffset;
+
+		if(size==offsets.length)
+			{
+			int capacity=size*2+1;
+
+			nameOffsets=Arrays.copyOf(nameOffsets, capacity);
+			nameLengths=Arrays.copyOf(nameLengths, capacity);
+			commentOffsets=Arrays.copyOf(commentOffsets, capacity);
+			commentLengths=Arrays.copyOf(commentLengths, capacity);
+
+			startOffsets=Arrays.copyOf(startOffsets, capacity);
+			startLengths=Arrays.copyOf(startLengths, capacity);
+			offsets=Arrays.copyOf(offsets, capacity);
+			lengths=Arrays.copyOf(lengths, capacity);
+			headPos=Arrays.copyOf(headPos, capacity);
+			dropped=Arrays.copyOf(dropped, capacity);
+			}
+
+		if(namesLength+nameSpace>names.length)
+			names=Arrays.copyOf(names, Math.max(names.length*2, namesLength+nameSpace));
+
+		if(sequencesLength+length>sequences.length)
+			{
+			int arenaSize=Math.max(sequences.length*2, sequencesLength+length);
+			sequences=Arrays.copyOf(sequences, arenaSize);
+			qualities=Arrays.copyOf(qualities, arenaSize);
+			}
+
+		startOffsets[size]=sequencesLength;
+		startLengths[size]=length;
+		offsets[size]=sequencesLength;
+		lengths[size]=length;
+		dropped[size]=false;
+
+		decoded=false;
+		return size++;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public int getPhredOffset()
+	{
+		return phredOffset;
+	}
+
+	public byte[] getSequences()
+	{
+		return sequences;
+	}
+
+	public byte[] getQualities()
+	{
+		return qualities;
+	}
+
+	/**
+	 * Quality scores with N bases zeroed, aligned with getSequences(). Must not be modified.
+	 */
+	public byte[] getQualityScores()
+	{
+		if(!decoded)
+			{
+			if(qualityScores==null || qualityScores.length<sequencesLength)
+				qualityScores=new byte[sequences.length];
+
+			QualityKernels.decode(sequences, 0, qualities, 0, qualityScores, 0, sequencesLength, phredOffset);
+
+			decoded=true;
+			}
+
+		return qualityScores;
+	}
+
+	/**
+	 * Start of the current window of read i in the sequence, quality and score arenas
+	 */
+	public int getOffset(int i)
+	{
+		return offsets[i];
+	}
+
+	public int getLength(int i)
+	{
+		return lengths[i];
+	}
+
+	public int getHeadPos(int i)
+	{
+		return headPos[i];
+	}
+
+	public boolean isDropped(int i)
+	{
+		return dropped[i];
+	}
+
+	/**
+	 * Narrows read i to length bases starting at headPos within its current window,
+	 * with the same clipping as the trimming constructor of FastqRecord
+	 */
+	public void trim(int i, int headPos, int length)
+	{
+		if(headPos+length>lengths[i])
+			length=lengths[i]-headPos;
+
+		offsets[i]+=headPos;
+		lengths[i]=length;
+		this.headPos[i]+=headPos;
+	}
+
+	public void drop(int i)
+	{
+		dropped[i]=true;
+	}
+
+	/**
+	 * The current window of read i as a record, or null if it has been dropped
+	 */
+	public FastqRecord getRecord(int i)
+	{
+		if(dropped[i])
+			return null;
+
+		return new FastqRecord(names, nameOffsets[i], nameLengths[i], commentOffsets[i], commentLengths[i],
+				sequences, qualities, getQualityScores(), offsets[i], lengths[i], headPos[i], phredOffset);
+	}
+
+	/**
+	 * Read i as it was added, before any trimming
+	 */
+	public FastqRecord getOriginalRecord(int i)
+	{
+		return new FastqRecord(names, nameOffsets[i], nameLengths[i], commentOffsets[i], commentLengths[i],
+				sequences, qualities, getQualityScores(), startOffsets[i], startLengths[i],
+				headPos[i]-(offsets[i]-startOffsets[i]), phredOffset);
+	}
+
+}
@@ -0,0 +1,314 @@
+package org.usadellab.trimmomatic.fastq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses an uncompressed FASTQ file with several threads. The file is cut into
+ * fixed size byte ranges, each re-synced to a record boundary, and each range is
+ * parsed independently. Ranges are numbered in file order, and handed back in
+ * that order, so the caller sees the same record sequence as a single parser.
+ */
+class FastqChunkReader
+{
+	public static final long CHUNK_SIZE=16L*1024*1024;
+
+	private static final int SYNC_WINDOW=65536;
+	// Roughly the reads in one chunk, the block grows if there are more
+	private static final int CHUNK_RECORDS=65536;
+
+	private File file;
+	private long fileLength;
+	private int chunkCount;
+
+	private Thread workers[];
+	private AtomicInteger nextChunk;
+	private int maxChunksAhead;
+
+	private Map<Integer, FastqBlock> parsedChunks;
+	private int consumeChunk;
+	private Throwable failure;
+
+	private FastqBlock current;
+	private int currentIndex;
+	private volatile long position;
+
+	FastqChunkReader(File file, int threads) throws IOException
+	{
+		this.file=file;
+		this.fileLength=file.length();
+		this.chunkCount=(int)((fileLength+CHUNK_SIZE-1)/CHUNK_SIZE);
+
+		this.nextChunk=new AtomicInteger();
+		this.maxChunksAhead=threads*2;
+		this.parsedChunks=new HashMap<Integer, FastqBlock>();
+		this.consumeChunk=0;
+
+		workers=new Thread[threads];
+		for(int i=0;i<threads;i++)
+			{
+			workers[i]=new Thread(new ChunkWorker());
+			workers[i].setDaemon(true);
+			workers[i].start();
+			}
+	}
+
+	/**
+	 * Finds the first record which starts at or after offset. A line starting with '@'
+	 * may also be a quality line, so it is only accepted if the line two further on
+	 * starts with '+' and the sequence and quality lengths agree.
+	 */
+	static long findRecordStart(RandomAccessFile raf, long offset, long fileLength) throws IOException
+	{
+		if(offset<=0)
+			return 0;
+
+		int windowSize=SYNC_WINDOW;
+
+		while(true)
+			{
+			long windowStart=offset-1;
+			int length=(int)Math.min(windowSize, fileLength-windowStart);
+			boolean windowAtEOF=windowStart+length>=fileLength;
+
+			byte buf[]=new byte[length];
+			raf.seek(windowStart);
+			raf.readFully(buf);
+
+			int lineStart=indexOf(buf, 0, '\n');
+			if(lineStart<0)
+				{
+				if(windowAtEOF)
+					return fileLength;
+
+				windowSize*=2;
+				continue;
+				}
+			lineStart++;
+
+			boolean incomplete=false;
+
+			while(lineStart<length)
+				{
+				int lineEnds[]=new int[4];
+				int pos=lineStart;
+				int line=0;
+
+				for(;line<4;line++)
+					{
+					int newline=indexOf(buf, pos, '\n');
+					if(newline<0)
+						{
+						if(!windowAtEOF)
+							break;
+						newline=length;
+						}
+					lineEnds[line]=newline;
+					pos=newline+1;
+					}
+
+				if(line<4)
+					{
+					incomplete=true;
+					break;
+					}
+
+				int line1Start=lineEnds[0]+1;
+				int line2Start=lineEnds[1]+1;
+				int line3Start=lineEnds[2]+1;
+
+				if(buf[lineStart]=='@' && line2Start<length && buf[line2Start]=='+' &&
+						trimmedLength(buf, line1Start, lineEnds[1])==trimmedLength(buf, line3Start, lineEnds[3]))
+					return windowStart+lineStart;
+
+				lineStart=lineEnds[0]+1;
+				}
+
+			if(!incomplete)
+				return fileLength;
+
+			windowSize*=2;
+			}
+	}
+
+	private static int indexOf(byte buf[], int from, char ch)
+	{
+		for(int i=from;i<buf.length;i++)
+			if(buf[i]==ch)
+				return i;
+
+		return -1;
+	}
+
+	private static int trimmedLength(byte buf[], int start, int end)
+	{
+		if(end>start && buf[end-1]=='\r')
+			end--;
+
+		return end-start;
+	}
+
+	private synchronized void putChunk(int chunk, FastqBlock recs)
+	{
+		parsedChunks.put(chunk, recs);
+		notifyAll();
+	}
+
+	private synchronized void fail(Throwable t)
+	{
+		if(failure==null)
+			failure=t;
+		notifyAll();
+	}
+
+	private synchronized boolean waitForTurn(int chunk) throws InterruptedException
+	{
+		while(chunk-consumeChunk>=maxChunksAhead && failure==null)
+			wait();
+
+		return failure==null;
+	}
+
+	private synchronized FastqBlock takeChunk(int chunk) throws IOException
+	{
+		FastqBlock recs=null;
+
+		try
+			{
+			while((recs=parsedChunks.remove(chunk))==null && failure==null)
+				wait();
+			}
+		catch(InterruptedException e)
+			{
+			throw new RuntimeException(e);
+			}
+
+		if(failure!=null)
+			{
+			if(failure instanceof IOException)
+				throw (IOException)failure;
+			if(failure instanceof RuntimeException)
+				throw (RuntimeException)failure;
+			throw new RuntimeException(failure);
+			}
+
+		consumeChunk=chunk+1;
+		notifyAll();
+
+		return recs;
+	}
+
+	/**
+	 * Moves on to the next read, which is then read getIndex() of getBlock()
+	 *
+	 * @return false at the end of the file
+	 */
+	boolean advance() throws IOException
+	{
+		currentIndex++;
+
+		while(current==null || currentIndex>=current.size())
+			{
+			if(current!=null)
+				position=Math.min((long)consumeChunk*CHUNK_SIZE, fileLength);
+
+			if(consumeChunk>=chunkCount)
+				{
+				current=null;
+				return false;
+				}
+
+			current=takeChunk(consumeChunk);
+			currentIndex=0;
+			}
+
+		return true;
+	}
+
+	FastqBlock getBlock()
+	{
+		return current;
+	}
+
+	int getIndex()
+	{
+		return currentIndex;
+	}
+
+	long getPosition()
+	{
+		return position;
+	}
+
+	void close()
+	{
+		fail(new IOException("Chunk reader closed"));
+
+		for(Thread worker: workers)
+			worker.interrupt();
+	}
+
+	private class ChunkWorker implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			RandomAccessFile raf=null;
+
+			try
+				{
+				raf=new RandomAccessFile(file, "r");
+
+				int chunk;
+				while((chunk=nextChunk.getAndIncrement())<chunkCount)
+					{
+					if(!waitForTurn(chunk))
+						return;
+
+					long start=findRecordStart(raf, chunk*CHUNK_SIZE, fileLength);
+					long end=findRecordStart(raf, Math.min((chunk+1)*CHUNK_SIZE, fileLength), fileLength);
+
+					FastqBlock recs=new FastqBlock(CHUNK_RECORDS);
+
+					if(start<end)
+						{
+						FastqParser parser=new FastqParser(33);
+						parser.parseRange(file, start, end);
+
+						while(parser.hasNext())
+							parser.nextInto(recs);
+
+						parser.close();
+						}
+
+					putChunk(chunk, recs);
+					}
+				}
+			catch(InterruptedException e)
+				{
+				// Closed early
+				}
+			catch(Throwable t)
+				{
+				fail(t);
+				}
+			finally
+				{
+				if(raf!=null)
+					{
+					try
+						{
+						raf.close();
+						}
+					catch(IOException e)
+						{
+						}
+					}
+				}
+		}
+	}
+}
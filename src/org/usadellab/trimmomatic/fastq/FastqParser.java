@@ -1,102 +1,266 @@
 package org.usadellab.trimmomatic.fastq;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.ArrayDeque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.ZipInputStream;
 
 import org.itadaki.bzip2.BZip2InputStream;
+import org.usadellab.trimmomatic.util.BGZFInputStream;
 import org.usadellab.trimmomatic.util.ConcatGZIPInputStream;
+import org.usadellab.trimmomatic.util.MappedFileInputStream;
+import org.usadellab.trimmomatic.util.ParallelBZip2InputStream;
 import org.usadellab.trimmomatic.util.PositionTrackingInputStream;
+import org.usadellab.trimmomatic.util.ReadAheadInputStream;
 
 public class FastqParser {
 
 	private static final int PREREAD_COUNT=10000;
+	private static final int BUFFER_SIZE=1048576;
 
     private int phredOffset;
-    private ArrayDeque<FastqRecord> deque;
     int qualHistogram[];
     
     private PositionTrackingInputStream posTrackInputStream;
-    private BufferedReader reader;
-    private FastqRecord current;
+    private MappedFileInputStream mappedInputStream;
+    private FastqChunkReader chunkReader;
+    private int parserThreads;
+    private boolean readAhead;
+    private InputStream contentInputStream;
+
+    // The record after the last one handed out, as lines of recordBuf starting at recordPos,
+    // or the current read of the chunk reader
+    private boolean hasCurrent;
+    private byte recordBuf[];
+    private int recordPos;
+
+    // Records are handed out as slices of buf, so a buffer is never reused once records point into it
+    private byte buf[];
+    private int bufPos;
+    private int bufLimit;
+    private boolean streamEOF;
+    private int lineStart[];
+    private int lineEnd[];
     private long fileLength;
 
     private AtomicBoolean atEOF;
     
     public FastqParser(int phredOffset) {
         this.phredOffset = phredOffset;
-        deque=new ArrayDeque<FastqRecord>(PREREAD_COUNT);
-        
         this.atEOF=new AtomicBoolean();
+
+        lineStart=new int[4];
+        lineEnd=new int[4];
+        
+        parserThreads=1;
+    }
+
+    /**
+     * Uncompressed input is split into chunks parsed by this many threads, and BGZF and bzip2
+     * input is decompressed by this many threads. Must be set before parse().
+     */
+    public void setParserThreads(int parserThreads)
+    {
+    	this.parserThreads=parserThreads;
+    }
+
+    /**
+     * Compressed input is decompressed on its own thread, ahead of the parser. Must be set before parse().
+     */
+    public void setReadAhead(boolean readAhead)
+    {
+    	this.readAhead=readAhead;
     }
 
     public void setPhredOffset(int phredOffset)
     {
     	this.phredOffset=phredOffset;
+    }
+    
+    private boolean fill() throws IOException
+    {
+    	if(streamEOF)
+    		return false;
     	
-    	if(current!=null)
-    		current.setPhredOffset(phredOffset);
+    	int remaining=bufLimit-bufPos;
+    	int size=remaining*2>BUFFER_SIZE ? remaining*2 : BUFFER_SIZE;
+    	
+    	byte newBuf[]=new byte[size];
+    	if(remaining>0)
+    		System.arraycopy(buf, bufPos, newBuf, 0, remaining);
+
+    	buf=newBuf;
+    	bufPos=0;
+    	bufLimit=remaining;
+    	
+    	while(bufLimit<buf.length)
+    		{
+    		int read=contentInputStream.read(buf, bufLimit, buf.length-bufLimit);
+    		if(read<0)
+    			{
+    			streamEOF=true;
+    			break;
+    			}
+    		bufLimit+=read;
+    		}
+
+    	return bufLimit>remaining;
+    }
+
+    private String lineAsString(int line)
+    {
+    	return new String(buf, bufPos+lineStart[line], lineEnd[line]-lineStart[line], FastqRecord.CHARSET);
     }
     
     public void parseOne() throws IOException 
     {
-        current = null;
-
-        String name;
-        String sequence;
-        String comment;
-        String quality;
+        hasCurrent = false;
 
-        String line;
+        if(chunkReader!=null)
+        	{
+        	hasCurrent=chunkReader.advance();
+        	if(!hasCurrent)
+        		atEOF.set(true);
+        	return;
+        	}
 
-        line = reader.readLine();
-        if (line == null) {
-        	atEOF.set(true);
-            return;
-        }
+        // Offsets are relative to bufPos, since fill() moves the partial record to the start of a new buffer
+        int rel=0;
         
-        if (line.charAt(0)=='@') {
-            name = line.substring(1);
-        } else {
-            throw new RuntimeException("Invalid FASTQ name line: " + line);
-        }
+        for(int line=0;line<4;line++)
+        	{
+        	int start=rel;
+        	int newline=-1;
+        	
+        	while(newline<0)
+        		{
+        		for(int i=bufPos+rel;i<bufLimit;i++)
+        			if(buf[i]=='\n')
+        				{
+        				newline=i-bufPos;
+        				break;
+        				}
+        		
+        		if(newline<0)
+        			{
+        			rel=bufLimit-bufPos;
+        			if(!fill())
+        				break;
+        			}
+        		}
+        	
+        	if(newline<0)
+        		{
+        		newline=bufLimit-bufPos;
+        		
+        		if(newline==start)
+        			{
+        			if(line==0)
+        				{
+        				atEOF.set(true);
+        				return;
+        				}
+        			throw new RuntimeException("Truncated FASTQ record at end of file: " + lineAsString(0));
+        			}
+        		}
+        	
+        	int end=newline;
+        	if(end>start && buf[bufPos+end-1]=='\r')
+        		end--;
+        	
+        	lineStart[line]=start;
+        	lineEnd[line]=end;
+        	rel=newline+1;
+        	}
 
-        sequence = reader.readLine();
+        if (lineEnd[0]==lineStart[0] || buf[bufPos+lineStart[0]]!='@')
+            throw new RuntimeException("Invalid FASTQ name line: " + lineAsString(0));
 
-        line = reader.readLine();
+        if (lineEnd[2]==lineStart[2] || buf[bufPos+lineStart[2]]!='+')
+            throw new RuntimeException("Invalid FASTQ comment line: " + lineAsString(2));
 
-        if (line.charAt(0)=='+') {
-            comment = line.substring(1);
-        } else {
-            throw new RuntimeException("Invalid FASTQ comment line: " + line);
-        }
+        if (lineEnd[1]-lineStart[1]!=lineEnd[3]-lineStart[3])
+            throw new RuntimeException("Sequence and quality length don't match: '"+lineAsString(1)+"' vs '"+lineAsString(3)+"'");
 
-        quality = reader.readLine();        
-        current = new FastqRecord(name, sequence, comment, quality, phredOffset);
+        hasCurrent = true;
+        recordBuf = buf;
+        recordPos = bufPos;
+        
+        bufPos+=rel;
+        if(bufPos>bufLimit)
+        	bufPos=bufLimit;
     }
 
     public int getProgress() {
     	if(atEOF.get())
     		return 100;
     	
-    	long bytesRead=posTrackInputStream.getPosition();
+    	long bytesRead;
+    	if(chunkReader!=null)
+    		bytesRead=chunkReader.getPosition();
+    	else if(mappedInputStream!=null)
+    		bytesRead=mappedInputStream.getPosition();
+    	else
+    		bytesRead=posTrackInputStream.getPosition();
     	
     	return (int)(((float) bytesRead / fileLength) * 100);    
     }
 
     
-    private void accumulateHistogram(FastqRecord rec)
+    /**
+     * Builds the quality histogram from the raw quality lines ahead of the parser, without
+     * consuming them or creating records. Sampling stops after PREREAD_COUNT records, or
+     * as soon as both ranges have been seen, since the result can then no longer change.
+     */
+    private void sampleQualities() throws IOException
+    {
+    	qualHistogram=new int[256];
+    	
+    	int rel=0;
+    	int line=0;
+    	int records=0;
+    	
+    	while(records<PREREAD_COUNT)
+    		{
+    		if(bufPos+rel>=bufLimit)
+    			{
+    			// fill() keeps everything from bufPos, so the sampled data is parsed again afterwards
+    			if(!fill())
+    				break;
+    			continue;
+    			}
+    		
+    		byte b=buf[bufPos+rel++];
+    		
+    		if(b=='\n')
+    			{
+    			if((++line & 3)==0)
+    				{
+    				if(++records%100==0 && isPhredAmbiguous())
+    					break;
+    				}
+    			}
+    		else if((line & 3)==3 && b!='\r')
+    			qualHistogram[b & 0xFF]++;
+    		}
+    }
+    
+    private boolean isPhredAmbiguous()
+    {
+    	return countRange(33, 58)>0 && countRange(80, 104)>0;
+    }
+    
+    private int countRange(int from, int to)
     {
-    	int quals[]=rec.getQualityAsInteger(false);
+    	int total=0;
+    	
+    	for(int i=from;i<=to;i++)
+    		total+=qualHistogram[i];
     	
-    	for(int i: quals)
-    		qualHistogram[i]++;
+    	return total;
     }
     
     public int determinePhredOffset()
@@ -124,63 +288,122 @@ public class FastqParser {
         String name = file.getName();
         fileLength = file.length();
         
-        posTrackInputStream=new PositionTrackingInputStream(new FileInputStream(file));
+        posTrackInputStream=null;
+        mappedInputStream=null;
+        chunkReader=null;
+        contentInputStream=null;
         
-        InputStream contentInputStream=posTrackInputStream;
-        
-        if (name.toLowerCase().endsWith(".gz")) {
-            contentInputStream=new ConcatGZIPInputStream(posTrackInputStream);
+        if (name.toLowerCase().endsWith(".gz") || name.toLowerCase().endsWith(".bgz")) {
+            posTrackInputStream=new PositionTrackingInputStream(new FileInputStream(file));
+            InputStream gzipInputStream=new BufferedInputStream(posTrackInputStream, 65536);
+            
+            if(parserThreads>1 && BGZFInputStream.isBGZF(gzipInputStream))
+            	contentInputStream=new BGZFInputStream(gzipInputStream, parserThreads);
+            else
+            	contentInputStream=new ConcatGZIPInputStream(gzipInputStream);
         } else if (name.toLowerCase().endsWith(".bz2")) {
-            contentInputStream=new BZip2InputStream(posTrackInputStream, false);
+            posTrackInputStream=new PositionTrackingInputStream(new FileInputStream(file));
+            
+            if(parserThreads>1)
+            	contentInputStream=new ParallelBZip2InputStream(posTrackInputStream, parserThreads);
+            else
+            	contentInputStream=new BZip2InputStream(posTrackInputStream, false);
         } else if (name.toLowerCase().endsWith(".zip")) {
+            posTrackInputStream=new PositionTrackingInputStream(new FileInputStream(file));
             contentInputStream=new ZipInputStream(posTrackInputStream);
+        } else if (parserThreads>1 && fileLength>FastqChunkReader.CHUNK_SIZE) {
+            chunkReader=new FastqChunkReader(file, parserThreads);
+        } else {
+            // Uncompressed input is read straight out of the page cache, without read() calls
+            mappedInputStream=new MappedFileInputStream(file);
+            contentInputStream=mappedInputStream;
         }
         
-        reader=new BufferedReader(new InputStreamReader(contentInputStream), 32768);
+        if(readAhead && posTrackInputStream!=null)
+        	contentInputStream=new ReadAheadInputStream(contentInputStream);
+        
+        resetBuffer();
         
         if(phredOffset==0)
         	{
-        	deque.clear();
-        	qualHistogram=new int[256];
-        	
-        	for(int i=0;i<PREREAD_COUNT;i++)
+        	if(chunkReader!=null)
         		{
-        		parseOne();
-        		if(current!=null)
-        			{
-        			deque.add(current);
-        			accumulateHistogram(current);
-        			}
+        		// The chunk threads are already running, so sample through a separate view of the file
+        		contentInputStream=new MappedFileInputStream(file);
+        		sampleQualities();
+        		contentInputStream.close();
+        		contentInputStream=null;
+        		resetBuffer();
         		}
+        	else
+        		sampleQualities();
+        	
+        	phredOffset=determinePhredOffset();
         	}
+        
         parseOne();
     }
 
+    void parseRange(File file, long start, long end) throws IOException {
+        fileLength = end;
+
+        mappedInputStream=new MappedFileInputStream(file, start, end);
+        contentInputStream=mappedInputStream;
+
+        resetBuffer();
+        parseOne();
+    }
+
+    private void resetBuffer()
+    {
+        buf=new byte[0];
+        bufPos=0;
+        bufLimit=0;
+        streamEOF=false;
+    }
+
     public void close() throws IOException {
-        reader.close();
+        if(chunkReader!=null)
+        	chunkReader.close();
+        else
+        	contentInputStream.close();
     }
 
     public boolean hasNext() {
-        return (!deque.isEmpty()) || (current != null);
+        return hasCurrent;
     }
 
     public FastqRecord next() throws IOException {
-    	if(deque.isEmpty())
-    		{
-    		FastqRecord current = this.current;
-    		parseOne();
+    	FastqRecord current = null;
 
-    		return current;
-    		}
-    	else
+    	if(chunkReader!=null && hasCurrent)
     		{
-    		FastqRecord rec=deque.poll();
-    		
-    		if(rec!=null)
-    			rec.setPhredOffset(phredOffset);
-    		
-    		return rec;
+    		current = chunkReader.getBlock().getOriginalRecord(chunkReader.getIndex());
+    		current.setPhredOffset(phredOffset);
     		}
+    	else if(hasCurrent)
+    		current = new FastqRecord(recordBuf, recordPos+lineStart[0]+1, lineEnd[0]-lineStart[0]-1,
+    				recordPos+lineStart[1], lineEnd[1]-lineStart[1],
+    				recordPos+lineStart[2]+1, lineEnd[2]-lineStart[2]-1,
+    				recordPos+lineStart[3], lineEnd[3]-lineStart[3], phredOffset);
+
+    	parseOne();
+
+    	return current;
+    }
+
+    /**
+     * Copies the next record onto the end of a block, as next() would return it but without creating a FastqRecord
+     */
+    public void nextInto(FastqBlock block) throws IOException {
+    	if(chunkReader!=null && hasCurrent)
+    		block.add(chunkReader.getBlock(), chunkReader.getIndex(), phredOffset);
+    	else if(hasCurrent)
+    		block.add(recordBuf, recordPos+lineStart[0]+1, lineEnd[0]-lineStart[0]-1,
+    				recordPos+lineStart[2]+1, lineEnd[2]-lineStart[2]-1,
+    				recordPos+lineStart[1], recordPos+lineStart[3], lineEnd[1]-lineStart[1], phredOffset);
+
+    	parseOne();
     }
 
 }
@@ -1,12 +1,33 @@
 package org.usadellab.trimmomatic.fastq;
 
+import java.nio.charset.Charset;
+
+import org.usadellab.trimmomatic.util.QualityKernels;
+
 public class FastqRecord
 {
+	static final Charset CHARSET=Charset.forName("ISO-8859-1");
+
 	private String name;
 	private String sequence;
 	private String comment;
 	private String quality;
     private String barcodeLabel = null; 
+
+	// Raw bytes, if this record was parsed as a byte slice or taken from a FastqBlock. Strings are only created on demand.
+	// The name and comment are held in data, the sequence and quality in their own arrays, which may all be the same buffer.
+	private byte data[];
+	private byte sequenceData[];
+	private byte qualityData[];
+	private int nameOffset, nameLength;
+	private int sequenceOffset;
+	private int commentOffset, commentLength;
+	private int qualityOffset;
+	private int length;
+
+	// Decoded quality scores with N bases zeroed, shared between a record and its trimmed views
+	private byte qualityScores[];
+	private int qualityScoresOffset;
 	
 	private int phredOffset;
 	private int headPos;
@@ -23,23 +44,99 @@ public class FastqRecord
 		
 		if(sequence.length()!=quality.length())
 			throw new RuntimeException("Sequence and quality length don't match: '"+sequence+"' vs '"+quality+"'");
+
+		this.length=sequence.length();
+	}
+
+	FastqRecord(byte data[], int nameOffset, int nameLength, int sequenceOffset, int sequenceLength,
+			int commentOffset, int commentLength, int qualityOffset, int qualityLength, int phredOffset)
+	{
+		this.data=data;
+		this.sequenceData=data;
+		this.qualityData=data;
+		this.nameOffset=nameOffset;
+		this.nameLength=nameLength;
+		this.sequenceOffset=sequenceOffset;
+		this.commentOffset=commentOffset;
+		this.commentLength=commentLength;
+		this.qualityOffset=qualityOffset;
+		this.length=sequenceLength;
+
+		this.phredOffset=phredOffset;
+		headPos=0;
+
+		if(sequenceLength!=qualityLength)
+			throw new RuntimeException("Sequence and quality length don't match: '"+
+					new String(data, sequenceOffset, sequenceLength, CHARSET)+"' vs '"+
+					new String(data, qualityOffset, qualityLength, CHARSET)+"'");
+	}
+
+	/**
+	 * A record onto the arenas of a FastqBlock, where the sequence, quality and decoded
+	 * quality scores of a read all start at the same offset
+	 */
+	FastqRecord(byte data[], int nameOffset, int nameLength, int commentOffset, int commentLength,
+			byte sequenceData[], byte qualityData[], byte qualityScores[], int offset, int length, int headPos, int phredOffset)
+	{
+		this.data=data;
+		this.nameOffset=nameOffset;
+		this.nameLength=nameLength;
+		this.commentOffset=commentOffset;
+		this.commentLength=commentLength;
+
+		this.sequenceData=sequenceData;
+		this.qualityData=qualityData;
+		this.qualityScores=qualityScores;
+		this.sequenceOffset=offset;
+		this.qualityOffset=offset;
+		this.qualityScoresOffset=offset;
+		this.length=length;
+
+		this.headPos=headPos;
+		this.phredOffset=phredOffset;
 	}
 	
 	public FastqRecord(FastqRecord base, int headPos, int length)
 	{
 		if(headPos<0)
-			System.err.println("Attempting invalid trim on "+base.name+" with length "+base.sequence.length()+": Wanted "+headPos+" to "+(headPos+length));
+			System.err.println("Attempting invalid trim on "+base.getName()+" with length "+base.length+": Wanted "+headPos+" to "+(headPos+length));
 		
-		int availableLength=base.getSequence().length();
+		int availableLength=base.length;
 		if(headPos+length>availableLength)
 			length=availableLength-headPos;
 	
-		this.sequence=base.sequence.substring(headPos,headPos+length);
-		this.quality=base.quality.substring(headPos,headPos+length);		
-		this.name=base.name;
-		this.comment=base.comment;
+		if(base.data!=null && headPos>=0 && length>=0)
+			{
+			// A view onto the same buffers: only the offsets change, nothing is copied
+			this.data=base.data;
+			this.sequenceData=base.sequenceData;
+			this.qualityData=base.qualityData;
+			this.nameOffset=base.nameOffset;
+			this.nameLength=base.nameLength;
+			this.sequenceOffset=base.sequenceOffset+headPos;
+			this.commentOffset=base.commentOffset;
+			this.commentLength=base.commentLength;
+			this.qualityOffset=base.qualityOffset+headPos;
+			this.name=base.name;
+			this.comment=base.comment;
+			}
+		else
+			{
+			this.sequence=base.getSequence().substring(headPos,headPos+length);
+			this.quality=base.getQuality().substring(headPos,headPos+length);		
+			this.name=base.getName();
+			this.comment=base.getComment();
+			}
+		
+		if(base.qualityScores!=null && headPos>=0 && length>=0)
+			{
+			this.qualityScores=base.qualityScores;
+			this.qualityScoresOffset=base.qualityScoresOffset+headPos;
+			}
+		
 		this.phredOffset=base.phredOffset;			
 		this.headPos=base.headPos+headPos;
+		this.length=length;
 
 		this.barcodeLabel = base.barcodeLabel;
 	}
@@ -48,10 +145,11 @@ public class FastqRecord
 	{
 		this.sequence=sequence;
 		this.quality=quality;		
-		this.name=base.name;
-		this.comment=base.comment;
+		this.name=base.getName();
+		this.comment=base.getComment();
 		this.headPos=base.headPos;
 		this.phredOffset=phredOffset;
+		this.length=sequence.length();
 
 		this.barcodeLabel = base.barcodeLabel;
 	}
@@ -74,11 +172,17 @@ public class FastqRecord
 	
 	public String getName()
 	{
+		if(name==null)
+			name=new String(data, nameOffset, nameLength, CHARSET);
+
 		return name;
 	}
 
 	public String getSequence()
 	{
+		if(sequence==null)
+			sequence=new String(sequenceData, sequenceOffset, length, CHARSET);
+
 		return sequence;
 	}
 
@@ -92,14 +196,25 @@ public class FastqRecord
 	
 	public String getComment()
 	{
+		if(comment==null)
+			comment=new String(data, commentOffset, commentLength, CHARSET);
+
 		return comment;
 	}
 
 	public String getQuality()
 	{
+		if(quality==null)
+			quality=new String(qualityData, qualityOffset, length, CHARSET);
+
 		return quality;
 	}
 	
+	public int getLength()
+	{
+		return length;
+	}
+
 	public int getPhredOffset()
 	{
 		return phredOffset;
@@ -108,6 +223,7 @@ public class FastqRecord
 	void setPhredOffset(int phredOffset)
 	{
 		this.phredOffset=phredOffset;
+		this.qualityScores=null;
 	}
 	
 	public int getHeadPos()
@@ -116,11 +232,129 @@ public class FastqRecord
 	}
 	
 
+	/**
+	 * Size of this record in FASTQ form, including the '@', '+' and line terminators
+	 */
+	int getSerializedLength()
+	{
+		return getNameLength()+getCommentLength()+length*2+6;
+	}
+
+	/**
+	 * Writes this record in FASTQ form into out at pos, which must have room for
+	 * getSerializedLength() bytes. Returns the position after the record.
+	 */
+	int serialize(byte out[], int pos)
+	{
+		out[pos++]='@';
+		pos=copyName(out, pos);
+		out[pos++]='\n';
+		pos=copySequence(out, pos);
+		out[pos++]='\n';
+		out[pos++]='+';
+		pos=copyComment(out, pos);
+		out[pos++]='\n';
+		pos=copyQuality(out, pos);
+		out[pos++]='\n';
+
+		return pos;
+	}
+
+	int getNameLength()
+	{
+		return (name!=null) ? name.length() : nameLength;
+	}
+
+	int getCommentLength()
+	{
+		return (comment!=null) ? comment.length() : commentLength;
+	}
+
+	int copyName(byte out[], int pos)
+	{
+		return (name!=null) ? copyChars(name, out, pos) : copyBytes(data, nameOffset, nameLength, out, pos);
+	}
+
+	int copyComment(byte out[], int pos)
+	{
+		return (comment!=null) ? copyChars(comment, out, pos) : copyBytes(data, commentOffset, commentLength, out, pos);
+	}
+
+	int copySequence(byte out[], int pos)
+	{
+		return (sequence!=null) ? copyChars(sequence, out, pos) : copyBytes(sequenceData, sequenceOffset, length, out, pos);
+	}
+
+	int copyQuality(byte out[], int pos)
+	{
+		return (quality!=null) ? copyChars(quality, out, pos) : copyBytes(qualityData, qualityOffset, length, out, pos);
+	}
+
+	private static int copyBytes(byte src[], int offset, int len, byte out[], int pos)
+	{
+		System.arraycopy(src, offset, out, pos, len);
+		return pos+len;
+	}
+
+	private static int copyChars(String str, byte out[], int pos)
+	{
+		// Input is decoded as ISO-8859-1, so each char maps back to a single byte
+		int len=str.length();
+		for(int i=0;i<len;i++)
+			out[pos++]=(byte)str.charAt(i);
+
+		return pos;
+	}
+
+	/**
+	 * Quality scores with N bases zeroed, starting at getQualityScoresOffset(). The array is
+	 * decoded once and shared with trimmed views of this record, so it must not be modified.
+	 */
+	public byte[] getQualityScores()
+	{
+		if(qualityScores==null)
+			{
+			byte scores[]=new byte[length];
+
+			if(quality==null)
+				QualityKernels.decode(sequenceData, sequenceOffset, qualityData, qualityOffset, scores, 0, length, phredOffset);
+			else
+				{
+				for(int i=0;i<length;i++)
+					scores[i]=(byte)(sequence.charAt(i)=='N' ? 0 : quality.charAt(i)-phredOffset);
+				}
+
+			qualityScores=scores;
+			qualityScoresOffset=0;
+			}
+
+		return qualityScores;
+	}
+
+	public int getQualityScoresOffset()
+	{
+		getQualityScores();
+		return qualityScoresOffset;
+	}
+
 	public int[] getQualityAsInteger(boolean zeroNs)
 	{
-		int arr[]=new int[quality.length()];
+		int arr[]=new int[length];
+
+		if(quality==null)
+			{
+			for(int i=0;i<length;i++)
+				{
+				if(zeroNs && sequenceData[sequenceOffset+i]=='N')
+					arr[i]=0;
+				else
+					arr[i]=qualityData[qualityOffset+i]-phredOffset;
+				}
+
+			return arr;
+			}
 		
-		for(int i=0;i<quality.length();i++)
+		for(int i=0;i<length;i++)
 			{
 			if(zeroNs && sequence.charAt(i)=='N')
 				arr[i]=0;
@@ -1,66 +1,147 @@
 package org.usadellab.trimmomatic.fastq;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.util.List;
 import java.util.zip.GZIPOutputStream;
 
-import org.itadaki.bzip2.BZip2OutputStream;
+import org.usadellab.trimmomatic.util.BGZFOutputStream;
+import org.usadellab.trimmomatic.util.ParallelBZip2OutputStream;
+import org.usadellab.trimmomatic.util.ParallelGZIPOutputStream;
 
 public class FastqSerializer {
 
-	private BufferedWriter stream;
+	private static final int BUFFER_SIZE=65536;
+
+	private OutputStream stream;
 	private File inputFile;
 
+	// Records are copied into this buffer as bytes, and it is written out whenever it fills
+	private byte buf[];
+	private int bufPos;
+
+	private int compressionThreads = 1;
+	private boolean bgzf = false;
+
+	// BGZF blocks are independent, so they are compressed before reaching the stream
+	private boolean precompressed = false;
+
 	public FastqSerializer()
 	{
 
 	}
 
+	public void setCompressionThreads(int compressionThreads)
+	{
+		this.compressionThreads = compressionThreads;
+	}
+
+	/**
+	 * Write '.gz' outputs as BGZF, as for '.bgz' outputs
+	 */
+	public void setBGZF(boolean bgzf)
+	{
+		this.bgzf = bgzf;
+	}
+
 	public void open(File file) throws IOException
 	{
 		String name = file.getName();
 		this.inputFile = file;
 
 		OutputStream gStream = new FileOutputStream(file);
+		precompressed = false;
 
-		if (name.endsWith(".gz"))
+		if (name.endsWith(".bgz") || (bgzf && name.endsWith(".gz")))
+			{
+			gStream = new BGZFOutputStream(gStream);
+			precompressed = true;
+			}
+		else if (name.endsWith(".gz"))
 			{
-			gStream = new GZIPOutputStream(gStream);
+			if (compressionThreads > 1)
+				gStream = new ParallelGZIPOutputStream(gStream, compressionThreads);
+			else
+				gStream = new GZIPOutputStream(gStream);
 			}
 		else if (name.endsWith(".bz2"))
 			{
-			gStream = new BZip2OutputStream(gStream);
+			// The jbzip2 compressor corrupts some blocks, so a single thread also goes through our encoder
+			gStream = new BufferedOutputStream(gStream, BUFFER_SIZE);
+			gStream = new ParallelBZip2OutputStream(gStream, Math.max(compressionThreads, 1));
 			}
 
-		// stream=new OutputStreamWriter(new BufferedOutputStream(gStream));
+		stream = gStream;
 
-		stream = new BufferedWriter(new OutputStreamWriter(gStream), 32768);
+		// Whole BGZF blocks compress better than one full block and a scrap per flush
+		buf = new byte[precompressed ? BGZFOutputStream.BLOCK_DATA_SIZE * 16 : BUFFER_SIZE];
+		bufPos = 0;
 	}
 
 	public void close() throws IOException
 	{
+		flushBuffer();
 		stream.close();
 	}
 
+	private void flushBuffer() throws IOException
+	{
+		if (bufPos > 0)
+			{
+			if (precompressed)
+				stream.write(BGZFOutputStream.compress(buf, 0, bufPos));
+			else
+				stream.write(buf, 0, bufPos);
+
+			bufPos = 0;
+			}
+	}
+
+	/**
+	 * Renders records into the bytes written by writeEncoded(). This is independent of
+	 * the serializer state, so it can be called on worker threads. For BGZF output the
+	 * bytes are already compressed.
+	 */
+	public byte[] encodeRecords(List<FastqRecord> records)
+	{
+		int len = 0;
+		for (FastqRecord record : records)
+			len += record.getSerializedLength();
+
+		byte data[] = new byte[len];
+		int pos = 0;
+
+		for (FastqRecord record : records)
+			pos = record.serialize(data, pos);
+
+		if (precompressed)
+			return BGZFOutputStream.compress(data, 0, len);
+
+		return data;
+	}
+
+	public void writeEncoded(byte data[]) throws IOException
+	{
+		flushBuffer();
+		stream.write(data);
+	}
+
 	public void writeRecord(FastqRecord record) throws IOException
 	{
-		StringBuilder sb=new StringBuilder(500);
-	       
-	    sb.append('@');
-	    sb.append(record.getName());
-	    sb.append('\n');
-	    sb.append(record.getSequence());
-	    sb.append("\n+");
-	    sb.append(record.getComment());
-	    sb.append('\n');
-	    sb.append(record.getQuality());
-	    sb.append('\n');
-
-	    stream.write(sb.toString());
+		int len = record.getSerializedLength();
+
+		if (bufPos + len > buf.length)
+			{
+			flushBuffer();
+
+			if (len > buf.length)
+				buf = new byte[len];
+			}
+
+		bufPos = record.serialize(buf, bufPos);
 	}
 
 	public File getInputFile()
@@ -1,25 +1,113 @@
 package org.usadellab.trimmomatic.threading;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.usadellab.trimmomatic.TrimStats;
+import org.usadellab.trimmomatic.fastq.FastqBlock;
 import org.usadellab.trimmomatic.fastq.FastqRecord;
 
 public class BlockOfRecords
 {
-	private List<FastqRecord>originalRecs1;
-	private List<FastqRecord>originalRecs2;
+	private FastqBlock block1;
+	private FastqBlock block2;
+
+	private BlockPool pool1;
+	private BlockPool pool2;
+	private BlockOfRecordsPool recordsPool;
+	private AtomicInteger references;
+
+	// Filled by BlockOfWork, and kept so a recycled BlockOfRecords reuses them
+	private List<List<FastqRecord>> outputLists;
+	private List<TrimLogRecord> trimLogList;
 	
 	private List<List<FastqRecord>> trimmedRecs;
 
 	private List<TrimLogRecord> trimLogRec;
+
+	private List<byte[]> encodedRecs;
 	
 	private TrimStats stats;
 	
-	public BlockOfRecords(List<FastqRecord> originalRecs1, List<FastqRecord> originalRecs2)
+	public BlockOfRecords(FastqBlock block1, FastqBlock block2)
+	{
+		this.block1=block1;
+		this.block2=block2;
+		this.references=new AtomicInteger();
+	}
+
+	/**
+	 * Points a recycled BlockOfRecords at a new pair of blocks
+	 */
+	void reset(FastqBlock block1, FastqBlock block2)
+	{
+		this.block1=block1;
+		this.block2=block2;
+	}
+
+	/**
+	 * Returns the blocks, and then this, to their pools once release() has been called the given number of times.
+	 * The trimmed records are views onto the blocks, so no consumer may use them after releasing.
+	 */
+	public void setRecycling(BlockPool pool1, BlockPool pool2, BlockOfRecordsPool recordsPool, int references)
+	{
+		this.pool1 = pool1;
+		this.pool2 = pool2;
+		this.recordsPool = recordsPool;
+		this.references.set(references);
+	}
+
+	public void release()
+	{
+		if(references.decrementAndGet()==0)
+			{
+			trimmedRecs=null;
+			trimLogRec=null;
+			encodedRecs=null;
+			stats=null;
+
+			if(outputLists!=null)
+				for(List<FastqRecord> list: outputLists)
+					list.clear();
+
+			if(trimLogList!=null)
+				trimLogList.clear();
+
+			if(pool1!=null)
+				pool1.recycle(block1);
+			if(pool2!=null)
+				pool2.recycle(block2);
+
+			if(recordsPool!=null)
+				recordsPool.recycle(this);
+			}
+	}
+
+	/**
+	 * Empty lists for the trimmed records of each output
+	 */
+	public List<List<FastqRecord>> getOutputLists(int outputs)
 	{
-		this.originalRecs1=originalRecs1;
-		this.originalRecs2=originalRecs2;
+		if(outputLists==null)
+			{
+			outputLists=new ArrayList<List<FastqRecord>>(outputs);
+			for(int i=0;i<outputs;i++)
+				outputLists.add(new ArrayList<FastqRecord>());
+			}
+
+		return outputLists;
+	}
+
+	/**
+	 * An empty list for the trimlog entries of the blocks
+	 */
+	public List<TrimLogRecord> getTrimLogList()
+	{
+		if(trimLogList==null)
+			trimLogList=new ArrayList<TrimLogRecord>();
+
+		return trimLogList;
 	}
 
 	public List<List<FastqRecord>> getTrimmedRecs()
@@ -38,14 +126,24 @@ public class BlockOfRecords
 		this.trimLogRec = trimLogRec;
 	}
 
-	public List<FastqRecord> getOriginalRecs1()
+	public List<byte[]> getEncodedRecs()
+	{
+		return encodedRecs;
+	}
+
+	public void setEncodedRecs(List<byte[]> encodedRecs)
+	{
+		this.encodedRecs = encodedRecs;
+	}
+
+	public FastqBlock getBlock1()
 	{
-		return originalRecs1;
+		return block1;
 	}
 
-	public List<FastqRecord> getOriginalRecs2()
+	public FastqBlock getBlock2()
 	{
-		return originalRecs2;
+		return block2;
 	}
 
 	public TrimStats getStats()
@@ -0,0 +1,35 @@
+package org.usadellab.trimmomatic.threading;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.usadellab.trimmomatic.fastq.FastqBlock;
+
+/**
+ * Free list of BlockOfRecords, recycled along with their blocks, so the lists of trimmed
+ * records and trimlog entries are reused rather than allocated for every block.
+ */
+public class BlockOfRecordsPool
+{
+	private ArrayBlockingQueue<BlockOfRecords> freeRecords;
+
+	public BlockOfRecordsPool(int capacity)
+	{
+		this.freeRecords=new ArrayBlockingQueue<BlockOfRecords>(capacity);
+	}
+
+	public BlockOfRecords take(FastqBlock block1, FastqBlock block2)
+	{
+		BlockOfRecords bor=freeRecords.poll();
+
+		if(bor==null)
+			return new BlockOfRecords(block1, block2);
+
+		bor.reset(block1, block2);
+		return bor;
+	}
+
+	public void recycle(BlockOfRecords bor)
+	{
+		freeRecords.offer(bor);
+	}
+}
@@ -5,23 +5,37 @@ import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.usadellab.trimmomatic.TrimStats;
+import org.usadellab.trimmomatic.fastq.FastqBlock;
 import org.usadellab.trimmomatic.fastq.FastqRecord;
+import org.usadellab.trimmomatic.fastq.FastqSerializer;
 import org.usadellab.trimmomatic.trim.Trimmer;
+import org.usadellab.trimmomatic.trim.TrimmerChain;
 
 public class BlockOfWork implements Callable<BlockOfRecords>
 {
-	private Trimmer trimmers[];
+	private TrimmerChain trimmers;
 	private BlockOfRecords bor;
 	private boolean pe;
 	private boolean trimLog;
+	private FastqSerializer serializers[];
 	
 	public BlockOfWork(Trimmer trimmers[], BlockOfRecords bor, boolean pe, boolean trimLog)
 	{
-		this.trimmers = trimmers;
+		this(trimmers, bor, pe, trimLog, null);
+	}
+
+	/**
+	 * If serializers are given, the trimmed records for each output are also encoded here,
+	 * so the serializer threads only need to write them
+	 */
+	public BlockOfWork(Trimmer trimmers[], BlockOfRecords bor, boolean pe, boolean trimLog, FastqSerializer serializers[])
+	{
+		this.trimmers = new TrimmerChain(trimmers);
 		this.bor = bor;
 		
 		this.pe = pe;
 		this.trimLog=trimLog;
+		this.serializers=serializers;
 	}
 
 	
@@ -34,15 +48,28 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 
 		if(rec!=null)
 			{
-			length=rec.getSequence().length();
+			length=rec.getLength();
 			startPos=rec.getHeadPos();
 			endPos=length+startPos;
-			trimTail=originalRec.getSequence().length()-endPos;
+			trimTail=originalRec.getLength()-endPos;
 			}
 		
 		return new TrimLogRecord(originalRec.getName(), length, startPos, endPos, trimTail);
 	}
 	
+	private void encodeRecs(List<List<FastqRecord>> trimmedRecsList)
+	{
+		if(serializers==null)
+			return;
+		
+		List<byte[]> encodedRecs=new ArrayList<byte[]>();
+		
+		for(int i=0;i<trimmedRecsList.size();i++)
+			encodedRecs.add(serializers[i].encodeRecords(trimmedRecsList.get(i)));
+		
+		bor.setEncodedRecs(encodedRecs);
+	}
+	
 	@Override
 	public BlockOfRecords call() throws Exception
 	{
@@ -50,11 +77,11 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 	
 		if (pe)
 			{
-			List<FastqRecord> originalRecs1 = bor.getOriginalRecs1();
-			List<FastqRecord> originalRecs2 = bor.getOriginalRecs2();
+			FastqBlock block1 = bor.getBlock1();
+			FastqBlock block2 = bor.getBlock2();
 
-			int len1 = originalRecs1.size();
-			int len2 = originalRecs2.size();
+			int len1 = block1.size();
+			int len2 = block2.size();
 
 			if(len1 == 0 && len2==0)
 				{
@@ -69,34 +96,39 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 			
 			int len = len1 < len2 ? len1 : len2;
 
+			trimmers.processBlock(block1);
+			trimmers.processBlock(block2);
+
 			FastqRecord originalRecs[]=new FastqRecord[2];
+			FastqRecord blockRecs[]=new FastqRecord[2];
+			FastqRecord recs[]=new FastqRecord[2];
+			int windows[][]=new int[2][2];
 			
-			List<FastqRecord>trimmedRecs1P=new ArrayList<FastqRecord>();
-			List<FastqRecord>trimmedRecs1U=new ArrayList<FastqRecord>();
-			List<FastqRecord>trimmedRecs2P=new ArrayList<FastqRecord>();
-			List<FastqRecord>trimmedRecs2U=new ArrayList<FastqRecord>();
+			List<List<FastqRecord>> trimmedRecsList=bor.getOutputLists(4);
+			List<FastqRecord>trimmedRecs1P=trimmedRecsList.get(0);
+			List<FastqRecord>trimmedRecs1U=trimmedRecsList.get(1);
+			List<FastqRecord>trimmedRecs2P=trimmedRecsList.get(2);
+			List<FastqRecord>trimmedRecs2U=trimmedRecsList.get(3);
 			
 			List<TrimLogRecord>trimLogList=null;
 			if(trimLog)
-				trimLogList=new ArrayList<TrimLogRecord>();
+				trimLogList=bor.getTrimLogList();
 			
 			for (int i = 0; i < len; i++)
 				{
-				originalRecs[0]=originalRecs1.get(i);
-				originalRecs[1]=originalRecs2.get(i);
-				FastqRecord recs[]=originalRecs;
+				originalRecs[0]=block1.getOriginalRecord(i);
+				originalRecs[1]=block2.getOriginalRecord(i);
+				blockRecs[0]=block1.getRecord(i);
+				blockRecs[1]=block2.getRecord(i);
 				
-				for(int j=0;j<trimmers.length;j++)
+				try
+					{
+					trimmers.processRemainingRecords(blockRecs, recs, windows);
+					}
+				catch (RuntimeException e)
 					{
-					try
-						{
-						recs=trimmers[j].processRecords(recs);
-						}
-					catch (RuntimeException e)
-						{
-						System.err.println("Exception processing reads: "+originalRecs[0].getName()+" and "+originalRecs[1].getName());
-						throw e;
-						}
+					System.err.println("Exception processing reads: "+originalRecs[0].getName()+" and "+originalRecs[1].getName());
+					throw e;
 					}
 				
 				if(recs[0]!=null && recs[1]!=null)
@@ -121,20 +153,15 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 					}
 				}
 			
-			List<List<FastqRecord>> trimmedRecsList=new ArrayList<List<FastqRecord>>();
-			trimmedRecsList.add(trimmedRecs1P);
-			trimmedRecsList.add(trimmedRecs1U);
-			trimmedRecsList.add(trimmedRecs2P);
-			trimmedRecsList.add(trimmedRecs2U);
-			
 			bor.setTrimmedRecs(trimmedRecsList, trimLogList);
-			bor.setStats(stats);			
+			bor.setStats(stats);
+			encodeRecs(trimmedRecsList);			
 			}
 		else
 			{
-			List<FastqRecord> originalRecsL = bor.getOriginalRecs1();
+			FastqBlock block = bor.getBlock1();
 
-			int len = originalRecsL.size();
+			int len = block.size();
 
 			if(len == 0)
 				{
@@ -146,31 +173,34 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 				return bor;
 				}
 			
+			trimmers.processBlock(block);
+
 			FastqRecord originalRecs[]=new FastqRecord[1];
+			FastqRecord blockRecs[]=new FastqRecord[1];
+			FastqRecord recs[]=new FastqRecord[1];
+			int windows[][]=new int[1][2];
 			
-			List<FastqRecord>trimmedRecs=new ArrayList<FastqRecord>();
+			List<List<FastqRecord>> trimmedRecsList=bor.getOutputLists(1);
+			List<FastqRecord>trimmedRecs=trimmedRecsList.get(0);
 			
 			List<TrimLogRecord>trimLogList=null;
 			if(trimLog)
-				trimLogList=new ArrayList<TrimLogRecord>();
+				trimLogList=bor.getTrimLogList();
 			
 			for (int i = 0; i < len; i++)
 				{
-				originalRecs[0]=originalRecsL.get(i);
-				FastqRecord recs[]=originalRecs;
+				originalRecs[0]=block.getOriginalRecord(i);
+				blockRecs[0]=block.getRecord(i);
 				
-				for(int j=0;j<trimmers.length;j++)
+				try
+					{
+					trimmers.processRemainingRecords(blockRecs, recs, windows);
+					}
+				catch (RuntimeException e)
 					{
-					try
-						{
-						recs=trimmers[j].processRecords(recs);
-						}
-					catch (RuntimeException e)
-						{
-						System.err.println("Exception processing read: "+originalRecs[0].getName());
-						e.printStackTrace();
-						throw e;
-						}
+					System.err.println("Exception processing read: "+originalRecs[0].getName());
+					e.printStackTrace();
+					throw e;
 					}
 				
 				if(recs[0]!=null)
@@ -185,11 +215,9 @@ public class BlockOfWork implements Callable<BlockOfRecords>
 					}
 				}
 			
-			List<List<FastqRecord>> trimmedRecsList=new ArrayList<List<FastqRecord>>();
-			trimmedRecsList.add(trimmedRecs);
-			
 			bor.setTrimmedRecs(trimmedRecsList, trimLogList);
 			bor.setStats(stats);
+			encodeRecs(trimmedRecsList);
 			}
 
 		return bor;
@@ -0,0 +1,43 @@
+package org.usadellab.trimmomatic.threading;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.usadellab.trimmomatic.fastq.FastqBlock;
+
+/**
+ * Free list of blocks for a parser to fill. Blocks are returned once every consumer has
+ * released them, so after the first few blocks the parser refills the same arenas
+ * rather than allocating new ones. If the pool runs dry a new block is made, and blocks
+ * returned to a full pool are left to the garbage collector.
+ */
+public class BlockPool
+{
+	private ArrayBlockingQueue<FastqBlock> freeBlocks;
+	private int blockSize;
+
+	public BlockPool(int capacity, int blockSize)
+	{
+		this.freeBlocks=new ArrayBlockingQueue<FastqBlock>(capacity);
+		this.blockSize=blockSize;
+	}
+
+	public FastqBlock take()
+	{
+		FastqBlock block=freeBlocks.poll();
+
+		if(block==null)
+			return new FastqBlock(blockSize);
+
+		return block;
+	}
+
+	public void recycle(FastqBlock block)
+	{
+		// Empty blocks mark the end of input, and may be shared between several block pairs
+		if(block==null || block.size()==0)
+			return;
+
+		block.clear();
+		freeBlocks.offer(block);
+	}
+}
@@ -1,26 +1,26 @@
 package org.usadellab.trimmomatic.threading;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.usadellab.trimmomatic.fastq.FastqBlock;
 import org.usadellab.trimmomatic.fastq.FastqParser;
-import org.usadellab.trimmomatic.fastq.FastqRecord;
 
 public class ParserWorker implements Runnable
 {
 	public static final int BLOCKSIZE=1000;
 
 	private FastqParser parser;
-	private ArrayBlockingQueue<List<FastqRecord>> parserQueue;
+	private ArrayBlockingQueue<FastqBlock> parserQueue;
+	private BlockPool pool;
 	private AtomicBoolean complete;
 	
-	public ParserWorker(FastqParser parser, ArrayBlockingQueue<List<FastqRecord>> parserQueue)
+	public ParserWorker(FastqParser parser, ArrayBlockingQueue<FastqBlock> parserQueue, BlockPool pool)
 	{
 		this.parser=parser;
 		this.parserQueue=parserQueue;
+		this.pool=pool;
 		
 		this.complete=new AtomicBoolean();
 	}
@@ -35,20 +35,20 @@ public class ParserWorker implements Runnable
 	{
 		try
 			{
-			List<FastqRecord> recs=new ArrayList<FastqRecord>(BLOCKSIZE);
+			FastqBlock block=pool.take();
 	
 			while(parser.hasNext())
 				{
-				recs.add(parser.next());
-				if(recs.size()>=BLOCKSIZE)
+				parser.nextInto(block);
+				if(block.size()>=BLOCKSIZE)
 					{
-					parserQueue.put(recs);
-					recs=new ArrayList<FastqRecord>();
+					parserQueue.put(block);
+					block=pool.take();
 					}
 				}
 			
-			if(recs.size()>0)
-				parserQueue.put(recs);
+			if(block.size()>0)
+				parserQueue.put(block);
 			}
 		catch(IOException e)
 			{
@@ -65,7 +65,7 @@ public class ParserWorker implements Runnable
 			complete.set(true);
 			try
 				{
-				parserQueue.put(new ArrayList<FastqRecord>());
+				parserQueue.put(new FastqBlock(0));
 				}
 			catch(InterruptedException e)
 				{
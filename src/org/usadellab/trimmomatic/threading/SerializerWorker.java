@@ -41,8 +41,17 @@ public class SerializerWorker implements Runnable
 
 			while(recs!=null)
 				{
-				for(FastqRecord rec: recs)
-					serializer.writeRecord(rec);
+				List<byte[]> encodedRecs = bor.getEncodedRecs();
+				
+				if(encodedRecs!=null)
+					serializer.writeEncoded(encodedRecs.get(recIndex));
+				else
+					{
+					for(FastqRecord rec: recs)
+						serializer.writeRecord(rec);
+					}
+				
+				bor.release();
 				
 				future=serializerQueue.take();
 				bor=future.get();
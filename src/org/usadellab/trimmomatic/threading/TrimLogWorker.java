@@ -44,6 +44,7 @@ public class TrimLogWorker implements Runnable
 				{
 				for(TrimLogRecord rec: recs)
 					logRec(rec);
+				bor.release();
 				
 				future=logQueue.take();
 				bor=future.get();
@@ -43,6 +43,7 @@ public class TrimStatsWorker implements Runnable
 			while(st!=null)
 				{
 				stats.merge(st);
+				bor.release();
 				
 				future=logQueue.take();
 				bor=future.get();
@@ -23,6 +23,17 @@ public abstract class AbstractSingleRecordTrimmer implements Trimmer
 	}
 
 	public abstract FastqRecord processRecord(FastqRecord in);
+
+	/**
+	 * Builds the record for a window of in, or returns in itself if nothing was trimmed
+	 */
+	static FastqRecord applyWindow(FastqRecord in, int window[])
+	{
+		if(window[0]==0 && window[1]==in.getLength())
+			return in;
+
+		return new FastqRecord(in, window[0], window[1]-window[0]);
+	}
 	
 	
 }
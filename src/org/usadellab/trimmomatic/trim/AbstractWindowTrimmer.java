@@ -0,0 +1,57 @@
+package org.usadellab.trimmomatic.trim;
+
+import org.usadellab.trimmomatic.fastq.FastqBlock;
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+
+/**
+ * Base for single record trimmers which only narrow a window of the read. Subclasses
+ * implement one method over the decoded quality scores, which serves single records,
+ * read windows and whole blocks.
+ */
+public abstract class AbstractWindowTrimmer extends AbstractSingleRecordTrimmer implements WindowTrimmer, BlockTrimmer
+{
+	@Override
+	public FastqRecord processRecord(FastqRecord in)
+	{
+		int window[]={0,in.getLength()};
+
+		if(!trimWindow(in, window))
+			return null;
+
+		return applyWindow(in, window);
+	}
+
+	@Override
+	public boolean trimWindow(FastqRecord in, int window[])
+	{
+		return trimWindow(in.getQualityScores(), in.getQualityScoresOffset(), window);
+	}
+
+	@Override
+	public void processBlock(FastqBlock block)
+	{
+		byte quals[]=block.getQualityScores();
+		int window[]=new int[2];
+		int size=block.size();
+
+		for(int i=0;i<size;i++)
+			{
+			if(block.isDropped(i))
+				continue;
+
+			window[0]=0;
+			window[1]=block.getLength(i);
+
+			if(trimWindow(quals, block.getOffset(i), window))
+				block.trim(i, window[0], window[1]-window[0]);
+			else
+				block.drop(i);
+			}
+	}
+
+	/**
+	 * Narrows window, relative to offset in quals, returning false if the read is dropped
+	 */
+	protected abstract boolean trimWindow(byte quals[], int offset, int window[]);
+
+}
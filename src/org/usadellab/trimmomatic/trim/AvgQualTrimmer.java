@@ -1,8 +1,8 @@
 package org.usadellab.trimmomatic.trim;
 
-import org.usadellab.trimmomatic.fastq.FastqRecord;
+import org.usadellab.trimmomatic.util.QualityKernels;
 
-public class AvgQualTrimmer extends AbstractSingleRecordTrimmer
+public class AvgQualTrimmer extends AbstractWindowTrimmer
 {
     private int qual;
 
@@ -18,20 +18,11 @@ public class AvgQualTrimmer extends AbstractSingleRecordTrimmer
         
 
     @Override
-    public FastqRecord processRecord(FastqRecord in)
+    protected boolean trimWindow(byte quals[], int offset, int window[])
     {
-            String seq=in.getSequence();
-            int quals[]=in.getQualityAsInteger(true);
+            int total=QualityKernels.sum(quals, offset+window[0], offset+window[1]);
 
-            int total=0;
-            
-            for(int i=0;i<seq.length();i++)
-                total+=quals[i];
-
-            if(total<qual*seq.length())
-              return null;
-            
-            return in;
+            return total>=qual*(window[1]-window[0]);
     }
 
 }
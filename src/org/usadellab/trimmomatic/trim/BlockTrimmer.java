@@ -0,0 +1,15 @@
+package org.usadellab.trimmomatic.trim;
+
+import org.usadellab.trimmomatic.fastq.FastqBlock;
+
+/**
+ * A single record trimmer which can also trim a whole block of reads in one call, working
+ * directly on the arenas of the block rather than on records. See TrimmerChain.
+ */
+public interface BlockTrimmer
+{
+	/**
+	 * Trims or drops each read of block which has not already been dropped
+	 */
+	void processBlock(FastqBlock block);
+}
@@ -2,7 +2,7 @@ package org.usadellab.trimmomatic.trim;
 
 import org.usadellab.trimmomatic.fastq.FastqRecord;
 
-public class CropTrimmer extends AbstractSingleRecordTrimmer
+public class CropTrimmer extends AbstractWindowTrimmer
 {
 	private int len;
 
@@ -19,10 +19,25 @@ public class CropTrimmer extends AbstractSingleRecordTrimmer
 	@Override
 	public FastqRecord processRecord(FastqRecord in)
 	{
-		if(in.getSequence().length()<len)
+		if(in.getLength()<len)
 			return in;
 	
 		return new FastqRecord(in,0,len);
 	}
 
+	@Override
+	public boolean trimWindow(FastqRecord in, int window[])
+	{
+		return trimWindow(null, 0, window);
+	}
+
+	@Override
+	protected boolean trimWindow(byte quals[], int offset, int window[])
+	{
+		if(window[1]-window[0]>len)
+			window[1]=window[0]+len;
+
+		return true;
+	}
+
 }
@@ -0,0 +1,78 @@
+package org.usadellab.trimmomatic.trim;
+
+import org.usadellab.trimmomatic.fastq.FastqBlock;
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+
+/**
+ * Runs a sequence of window trimmers as a single step. Each step narrows the same window
+ * over the decoded quality scores of the read, and a record is only built for the final
+ * window, so the result is the same as running the steps one after another.
+ */
+public class FusedQualityTrimmer extends AbstractSingleRecordTrimmer implements WindowTrimmer, BlockTrimmer
+{
+	private WindowTrimmer steps[];
+
+	FusedQualityTrimmer(WindowTrimmer steps[])
+	{
+		this.steps=steps;
+	}
+
+	@Override
+	public FastqRecord processRecord(FastqRecord in)
+	{
+		int window[]={0,in.getLength()};
+
+		if(!trimWindow(in, window))
+			return null;
+
+		return applyWindow(in, window);
+	}
+
+	@Override
+	public boolean trimWindow(FastqRecord in, int window[])
+	{
+		for(int i=0;i<steps.length;i++)
+			{
+			if(!steps[i].trimWindow(in, window))
+				return false;
+			}
+
+		return true;
+	}
+
+	/**
+	 * Reads are trimmed independently, so the steps can each run over the whole block in turn
+	 */
+	@Override
+	public void processBlock(FastqBlock block)
+	{
+		for(int i=0;i<steps.length;i++)
+			{
+			if(steps[i] instanceof BlockTrimmer)
+				((BlockTrimmer)steps[i]).processBlock(block);
+			else
+				processBlock(steps[i], block);
+			}
+	}
+
+	private static void processBlock(WindowTrimmer step, FastqBlock block)
+	{
+		int window[]=new int[2];
+
+		for(int i=0;i<block.size();i++)
+			{
+			FastqRecord rec=block.getRecord(i);
+			if(rec==null)
+				continue;
+
+			window[0]=0;
+			window[1]=rec.getLength();
+
+			if(step.trimWindow(rec, window))
+				block.trim(i, window[0], window[1]-window[0]);
+			else
+				block.drop(i);
+			}
+	}
+
+}
@@ -2,7 +2,7 @@ package org.usadellab.trimmomatic.trim;
 
 import org.usadellab.trimmomatic.fastq.FastqRecord;
 
-public class HeadCropTrimmer extends AbstractSingleRecordTrimmer
+public class HeadCropTrimmer extends AbstractWindowTrimmer
 {
 	private int pos;
 
@@ -14,7 +14,7 @@ public class HeadCropTrimmer extends AbstractSingleRecordTrimmer
 	@Override
 	public FastqRecord processRecord(FastqRecord in)
 	{
-		int len=in.getSequence().length();
+		int len=in.getLength();
 	
 		if(len<=pos)
 			return null;
@@ -22,4 +22,20 @@ public class HeadCropTrimmer extends AbstractSingleRecordTrimmer
 		return new FastqRecord(in,pos,len-pos);
 	}
 
+	@Override
+	public boolean trimWindow(FastqRecord in, int window[])
+	{
+		return trimWindow(null, 0, window);
+	}
+
+	@Override
+	protected boolean trimWindow(byte quals[], int offset, int window[])
+	{
+		if(window[1]-window[0]<=pos)
+			return false;
+
+		window[0]+=pos;
+		return true;
+	}
+
 }
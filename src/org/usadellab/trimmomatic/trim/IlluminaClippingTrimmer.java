@@ -3,13 +3,12 @@ package org.usadellab.trimmomatic.trim;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,6 +25,10 @@ public class IlluminaClippingTrimmer implements Trimmer
 	public final static int INTERLEAVE = 4;
 
 	private final static float LOG10_4 = 0.60206f;
+	private final static float PALINDROME_SLACK = 0.1f;
+
+	// Seed words, by seedMaxMiss, below which comparing each sequence directly beats the seed index
+	private final static int MIN_INDEXED_SEED_WORDS[] = { 20, 48, 180 };
 
 	private int seedMaxMiss;
 	private int minPalindromeLikelihood;
@@ -43,6 +46,8 @@ public class IlluminaClippingTrimmer implements Trimmer
 	private Set<IlluminaClippingSeq> reverseSeqs;
 	private Set<IlluminaClippingSeq> commonSeqs;
 
+	private IlluminaSeedIndex forwardIndex;
+	private IlluminaSeedIndex reverseIndex;
 	
 	public static IlluminaClippingTrimmer makeIlluminaClippingTrimmer(String args) throws IOException
 	{
@@ -97,6 +102,8 @@ public class IlluminaClippingTrimmer implements Trimmer
 		commonSeqs = new HashSet<IlluminaClippingSeq>();
 		forwardSeqs = new HashSet<IlluminaClippingSeq>();
 		reverseSeqs = new HashSet<IlluminaClippingSeq>();		
+
+		buildSeedIndexes();
 	}
 
 	
@@ -167,6 +174,7 @@ public class IlluminaClippingTrimmer implements Trimmer
 				+ " forward/reverse sequences, " + forwardSeqs.size() + " forward only sequences, "
 				+ reverseSeqs.size() + " reverse only sequences");
 
+		buildSeedIndexes();
 	}
 
 	
@@ -186,7 +194,15 @@ public class IlluminaClippingTrimmer implements Trimmer
 			}
 		else
 			reverseSeqs.add(clippingSeq);
+
+		buildSeedIndexes();
 		}
+
+	private void buildSeedIndexes()
+	{
+		forwardIndex = new IlluminaSeedIndex(forwardSeqs, commonSeqs);
+		reverseIndex = new IlluminaSeedIndex(reverseSeqs, commonSeqs);
+	}
 	
 	
 	
@@ -243,13 +259,17 @@ public class IlluminaClippingTrimmer implements Trimmer
 
 		Integer toKeepForward = null, toKeepReverse = null;
 
+		// Each read is packed once here, and the packing is shared by all the checks below
+		PackedRead forwardRead = forwardRec != null ? new PackedRead(forwardRec, false) : null;
+		PackedRead reverseRead = reverseRec != null ? new PackedRead(reverseRec, forwardRec != null && !prefixPairs.isEmpty()) : null;
+
 		if (forwardRec != null && reverseRec != null)
 			{
 			// First, check for a palindrome
 
 			for (IlluminaPrefixPair pair : prefixPairs)
 				{
-				Integer toKeep = pair.palindromeReadsCompare(forwardRec, reverseRec);
+				Integer toKeep = pair.palindromeReadsCompare(forwardRead, reverseRead);
 
 				if (toKeep != null)
 					{
@@ -269,11 +289,7 @@ public class IlluminaClippingTrimmer implements Trimmer
 			{
 			if (toKeepForward == null || toKeepForward > 0)
 				{
-				for (IlluminaClippingSeq seq : forwardSeqs)
-					toKeepForward = min(toKeepForward, seq.readsSeqCompare(forwardRec));
-
-				for (IlluminaClippingSeq seq : commonSeqs)
-					toKeepForward = min(toKeepForward, seq.readsSeqCompare(forwardRec));
+				toKeepForward = min(toKeepForward, forwardIndex.findClip(forwardRead));
 				}
 
 			// Keep the minimum
@@ -291,11 +307,7 @@ public class IlluminaClippingTrimmer implements Trimmer
 			{
 			if (toKeepReverse == null || toKeepReverse > 0)
 				{
-				for (IlluminaClippingSeq seq : reverseSeqs)
-					toKeepReverse = min(toKeepReverse, seq.readsSeqCompare(reverseRec));
-
-				for (IlluminaClippingSeq seq : commonSeqs)
-					toKeepReverse = min(toKeepReverse, seq.readsSeqCompare(reverseRec));
+				toKeepReverse = min(toKeepReverse, reverseIndex.findClip(reverseRead));
 				}
 			// Keep the minimum
 
@@ -316,11 +328,46 @@ public class IlluminaClippingTrimmer implements Trimmer
 		return new FastqRecord[0];
 	}
 
+	/**
+	 * A read with its forward packing, and for the second mate of a palindrome check also
+	 * its reverse complement packing, computed once as it enters the clipper
+	 */
+	static class PackedRead
+	{
+		private FastqRecord rec;
+		private String sequence;
+
+		private long forward[];
+		private long reverse[];
+		private long reverseHead;
+
+		PackedRead(FastqRecord rec, boolean packReverse)
+		{
+			this.rec = rec;
+			this.sequence = rec.getSequence();
+			this.forward = packSeqExternal(sequence);
+
+			if (packReverse)
+				{
+				int length = sequence.length();
+
+				reverse = length >= 16 ? packSeqInternal(sequence, true) : new long[0];
+
+				// Reverse complement of the first 16 bases, zero padded, for the words which straddle the prefix
+				for (int i = 0; i < 16 && i < length; i++)
+					reverseHead |= (long) packCh(sequence.charAt(i), true) << (i * 4);
+				}
+		}
+	}
+
 	class IlluminaPrefixPair
 	{
 		private String prefix1;
 		private String prefix2;
 
+		private long prefixForward1[];
+		private long prefixReverse2[];
+
 		private IlluminaPrefixPair(String prefix1, String prefix2)
 		{
 			System.err.println("Using PrefixPair: '" + prefix1 + "' and '" + prefix2 + "'");
@@ -340,6 +387,53 @@ public class IlluminaClippingTrimmer implements Trimmer
 
 			this.prefix1 = prefix1;
 			this.prefix2 = prefix2;
+
+			prefixForward1 = packSeqExternal(prefix1);
+
+			// Reverse complement words over the prefix, zero padded past its end
+			int length = prefix2.length();
+			prefixReverse2 = new long[length];
+
+			for (int i = 0; i < length; i++)
+				{
+				long pack = 0;
+				for (int j = 0; j < 16 && i + j < length; j++)
+					pack |= (long) packCh(prefix2.charAt(i + j), true) << (j * 4);
+
+				prefixReverse2[i] = pack;
+				}
+		}
+
+		/**
+		 * Word i of packSeqInternal(prefix1 + read, false), taken from the packed prefix and read
+		 */
+		private long forwardWord(PackedRead read, int i)
+		{
+			int prefixBases = prefix1.length() - i;
+
+			if (prefixBases <= 0)
+				return read.forward[-prefixBases];
+
+			if (prefixBases >= 16)
+				return prefixForward1[i];
+
+			return prefixForward1[i] | (read.forward[0] >>> (prefixBases * 4));
+		}
+
+		/**
+		 * Word i of packSeqInternal(prefix2 + read, true), taken from the packed prefix and read
+		 */
+		private long reverseWord(PackedRead read, int i)
+		{
+			int prefixBases = prefix2.length() - i;
+
+			if (prefixBases <= 0)
+				return read.reverse[-prefixBases];
+
+			if (prefixBases >= 16)
+				return prefixReverse2[i];
+
+			return prefixReverse2[i] | (read.reverseHead << (prefixBases * 4));
 		}
 
 		public String getPrefix1()
@@ -354,15 +448,23 @@ public class IlluminaClippingTrimmer implements Trimmer
 
 
 		
-		private Integer palindromeReadsCompare(FastqRecord rec1, FastqRecord rec2)
+		private Integer palindromeReadsCompare(PackedRead read1, PackedRead read2)
 		{
 			int seedMax = seedMaxMiss * 2;
 
-			long pack1[] = packSeqInternal(getPrefix1() + rec1.getSequence(), false);
-			long pack2[] = packSeqInternal(getPrefix2() + rec2.getSequence(), true);
+			FastqRecord rec1 = read1.rec;
+			FastqRecord rec2 = read2.rec;
 
 			int prefixLength = getPrefix1().length();
 
+			// Reads shorter than a seed word have no word at the end of the prefix to seed from
+			if (read1.sequence.length() < 16 || read2.sequence.length() < 16)
+				return null;
+
+			// Words of the prefixed reads, which are streamed from the packed prefix and read
+			int packLength1 = prefixLength + read1.sequence.length() - 15;
+			int packLength2 = prefixLength + read2.sequence.length() - 15;
+
 			int testIndex = 0;
 			int refIndex = prefixLength;
 
@@ -375,21 +477,18 @@ public class IlluminaClippingTrimmer implements Trimmer
 				count = seedSkip;
 				}
 
-			long ref1 = pack1[refIndex];
-			long ref2 = pack2[refIndex];
-
-			int seqlen1 = rec1.getSequence().length() + prefixLength;
-			int seqlen2 = rec2.getSequence().length() + prefixLength;
+			int seqlen1 = read1.sequence.length() + prefixLength;
+			int seqlen2 = read2.sequence.length() + prefixLength;
 
 			int maxCount = (seqlen1 > seqlen2 ? seqlen1 : seqlen2) - 15 - minPrefix;
 
 			while (count < maxCount)
 				{
-				ref1 = pack1[refIndex];
-				ref2 = pack2[refIndex];
+				long ref1 = forwardWord(read1, refIndex);
+				long ref2 = reverseWord(read2, refIndex);
 
-				if ((testIndex < pack2.length && Long.bitCount(ref1 ^ pack2[testIndex]) <= seedMax)
-						|| (testIndex < pack1.length && Long.bitCount(ref2 ^ pack1[testIndex]) <= seedMax))				
+				if ((testIndex < packLength2 && Long.bitCount(ref1 ^ reverseWord(read2, testIndex)) <= seedMax)
+						|| (testIndex < packLength1 && Long.bitCount(ref2 ^ forwardWord(read1, testIndex)) <= seedMax))
 					{
 					int totalOverlap = count + prefixLength + 16;
 
@@ -416,7 +515,7 @@ public class IlluminaClippingTrimmer implements Trimmer
 				count++;
 				int testRefIndex = refIndex + 1;
 
-				if (((count & 0x1) == 0) && testRefIndex < pack1.length && testRefIndex < pack2.length)
+				if (((count & 0x1) == 0) && testRefIndex < packLength1 && testRefIndex < packLength2)
 					refIndex++;
 				else
 					testIndex++;
@@ -443,6 +542,11 @@ public class IlluminaClippingTrimmer implements Trimmer
 			return 'N';
 		}
 
+		/**
+		 * Sums the per base scores over the overlap. Each base can add at most LOG10_4, so
+		 * scoring stops once the bases left can no longer lift the total to the palindrome
+		 * threshold, returning the partial total, which is then below it.
+		 */
 		private float calculatePalindromeDifferenceQuality(FastqRecord rec1, FastqRecord rec2, int overlap, int skip1,
 				int skip2)
 		{
@@ -452,12 +556,17 @@ public class IlluminaClippingTrimmer implements Trimmer
 			String prefix1 = getPrefix1();
 			String prefix2 = getPrefix2();
 
-			int quals1[] = rec1.getQualityAsInteger(true);
-			int quals2[] = rec2.getQualityAsInteger(true);
+			byte quals1[] = rec1.getQualityScores();
+			byte quals2[] = rec2.getQualityScores();
+			int qualOffset1 = rec1.getQualityScoresOffset();
+			int qualOffset2 = rec2.getQualityScoresOffset();
 
 			int prefixLength = prefix1.length();
 
-			float likelihood[] = new float[overlap];
+			// Allows for rounding in the running total, so a pair is never abandoned that would have passed
+			float required = minPalindromeLikelihood - PALINDROME_SLACK;
+
+			float total = 0;
 
 			for (int i = 0; i < overlap; i++)
 				{
@@ -469,33 +578,333 @@ public class IlluminaClippingTrimmer implements Trimmer
 
 				ch2 = compCh(ch2);
 
-				int qual1 = offset1 < prefixLength ? 100 : quals1[offset1 - prefixLength];
-				int qual2 = offset2 < prefixLength ? 100 : quals2[offset2 - prefixLength];
+				if (ch1 == ch2 && ch1 != 'N')
+					{
+					total += LOG10_4;
+					continue;
+					}
 
-				if (ch1 == 'N' || ch2 == 'N')
-					likelihood[i] = 0;
-				else if (ch1 != ch2)
+				if (ch1 != 'N' && ch2 != 'N')
 					{
+					int qual1 = offset1 < prefixLength ? 100 : quals1[qualOffset1 + offset1 - prefixLength];
+					int qual2 = offset2 < prefixLength ? 100 : quals2[qualOffset2 + offset2 - prefixLength];
+
 					if (qual1 < qual2)
-						likelihood[i] = -qual1 / 10;
+						total += -qual1 / 10;
 					else
-						likelihood[i] = -qual2 / 10;
+						total += -qual2 / 10;
 					}
-				else
-					likelihood[i] = LOG10_4;
+
+				if (total + (overlap - i - 1) * LOG10_4 < required)
+					return total;
+				}
+
+			return total;
+		}
+	}
+
+	/**
+	 * One seed index over all the clipping sequences checked against a read. Every full 16
+	 * base seed word is split into seedMaxMiss*2+1 parts, each kept in its own hash table.
+	 * A seed within the mismatch limit differs from the read word in at most seedMaxMiss*2
+	 * bases, so at least one of its parts matches exactly, and a single pass over the read
+	 * finds every candidate sequence and offset. Candidates are then checked against the
+	 * full seed as before. Short sequences, and the read words which run off the end of
+	 * the read, don't have full seeds, and are still compared directly.
+	 *
+	 * Each probe costs more than a direct comparison, and short parts often match by chance,
+	 * so with few seed words, as in the standard adapter files, every sequence is compared
+	 * directly instead.
+	 */
+	class IlluminaSeedIndex
+	{
+		private IlluminaClippingSeq seqs[];
+		private int maxSeqLength;
+
+		// Offset sets for each sequence, reused by each worker thread for every read it checks
+		private ThreadLocal<OffsetSet[]> offsetScratch = new ThreadLocal<OffsetSet[]>()
+			{
+			@Override
+			protected OffsetSet[] initialValue()
+				{
+				OffsetSet offsetSets[] = new OffsetSet[seqs.length];
+				for (int s = 0; s < seqs.length; s++)
+					offsetSets[s] = new OffsetSet();
+
+				return offsetSets;
 				}
+			};
+
+		private long partMasks[];
+		private SeedTable tables[];
 
-			return calculateTotal(likelihood);
+		IlluminaSeedIndex(Set<IlluminaClippingSeq> seqSet1, Set<IlluminaClippingSeq> seqSet2)
+		{
+			this(seqSet1, seqSet2, null);
 		}
 
-		private float calculateTotal(float vals[])
+		/**
+		 * @param indexed whether to build the index where the seed parts allow it, or null to
+		 *        decide from the number of seed words
+		 */
+		IlluminaSeedIndex(Set<IlluminaClippingSeq> seqSet1, Set<IlluminaClippingSeq> seqSet2, Boolean indexed)
 		{
-			float total = 0;
+			List<IlluminaClippingSeq> seqList = new ArrayList<IlluminaClippingSeq>(seqSet1);
+			seqList.addAll(seqSet2);
 
-			for (float val : vals)
-				total += val;
+			seqs = seqList.toArray(new IlluminaClippingSeq[seqList.size()]);
 
-			return total;
+			int seedWords = 0;
+			for (IlluminaClippingSeq seq : seqs)
+				{
+				maxSeqLength = Math.max(maxSeqLength, seq.getSeq().length());
+
+				if (seq.hasFullSeeds())
+					seedWords += seq.getPack().length;
+				}
+
+			int parts = seedMaxMiss * 2 + 1;
+
+			// Parts of less than 3 bases match almost everywhere, so the index wouldn't help
+			if (parts < 1 || parts > 5)
+				indexed = Boolean.FALSE;
+			else if (indexed == null)
+				indexed = seedWords >= MIN_INDEXED_SEED_WORDS[seedMaxMiss];
+
+			if (!indexed)
+				{
+				partMasks = new long[0];
+				tables = new SeedTable[0];
+				return;
+				}
+
+			partMasks = new long[parts];
+			tables = new SeedTable[parts];
+
+			for (int p = 0; p < parts; p++)
+				{
+				int start = p * 16 / parts;
+				int end = (p + 1) * 16 / parts;
+
+				partMasks[p] = start == 0 ? calcSingleMask(end) : calcSingleMask(end) & ~calcSingleMask(start);
+
+				Map<Long, List<Integer>> partMap = new HashMap<Long, List<Integer>>();
+
+				for (int s = 0; s < seqs.length; s++)
+					{
+					if (!seqs[s].hasFullSeeds())
+						continue;
+
+					long packClip[] = seqs[s].getPack();
+
+					for (int j = 0; j < packClip.length; j++)
+						{
+						Long key = packClip[j] & partMasks[p];
+
+						List<Integer> entries = partMap.get(key);
+						if (entries == null)
+							{
+							entries = new ArrayList<Integer>();
+							partMap.put(key, entries);
+							}
+
+						entries.add((s << 16) | j);
+						}
+					}
+
+				tables[p] = new SeedTable(partMap);
+				}
+		}
+
+		/**
+		 * The smallest offset at which any of the sequences is found in the read, or null if none are
+		 */
+		Integer findClip(PackedRead read)
+		{
+			int seedMax = seedMaxMiss * 2;
+
+			long packRec[] = read.forward;
+
+			int packRecMax = packRec.length - minSequenceOverlap;
+			int indexedMax = tables.length > 0 ? Math.min(packRecMax, packRec.length - 15) : 0;
+
+			// No seed word starts before the beginning of the longest sequence
+			OffsetSet offsetSets[] = offsetScratch.get();
+			for (int s = 0; s < seqs.length; s++)
+				offsetSets[s].reset(-maxSeqLength, packRec.length);
+
+			for (int i = 0; i < indexedMax; i++)
+				{
+				for (int p = 0; p < tables.length; p++)
+					{
+					SeedTable table = tables[p];
+					int slot = table.find(packRec[i] & partMasks[p]);
+
+					if (slot < 0)
+						continue;
+
+					for (int k = table.starts[slot]; k < table.ends[slot]; k++)
+						{
+						int s = table.entries[k] >>> 16;
+						int j = table.entries[k] & 0xFFFF;
+
+						IlluminaClippingSeq seq = seqs[s];
+
+						if (Long.bitCount(packRec[i] ^ seq.getPack()[j]) <= seedMax)
+							offsetSets[s].add(i - j * seq.getSeedStride());
+						}
+					}
+				}
+
+			Integer toKeep = null;
+
+			for (int s = 0; s < seqs.length; s++)
+				{
+				IlluminaClippingSeq seq = seqs[s];
+				OffsetSet offsetSet = offsetSets[s];
+
+				seq.addSeedOffsets(packRec, seq.hasFullSeeds() ? indexedMax : 0, packRecMax, offsetSet);
+
+				toKeep = min(toKeep, seq.verifyOffsets(read, offsetSet));
+				}
+
+			return toKeep;
+		}
+	}
+
+	/**
+	 * Open addressing hash table from a seed part to the sequence and word index of the
+	 * seeds containing it, packed as (sequence << 16) | word
+	 */
+	private static class SeedTable
+	{
+		private long keys[];
+		private int starts[];
+		private int ends[];
+		private int entries[];
+
+		private int shift;
+
+		private SeedTable(Map<Long, List<Integer>> map)
+		{
+			int bits = 1;
+			while ((1 << bits) < map.size() * 2)
+				bits++;
+
+			int size = 1 << bits;
+			shift = 64 - bits;
+
+			keys = new long[size];
+			starts = new int[size];
+			ends = new int[size];
+
+			int total = 0;
+			for (List<Integer> list : map.values())
+				total += list.size();
+
+			entries = new int[total];
+
+			int pos = 0;
+
+			for (Map.Entry<Long, List<Integer>> entry : map.entrySet())
+				{
+				long key = entry.getKey();
+				int slot = slot(key);
+
+				while (ends[slot] != 0)
+					slot = (slot + 1) & (size - 1);
+
+				keys[slot] = key;
+				starts[slot] = pos;
+
+				for (Integer value : entry.getValue())
+					entries[pos++] = value;
+
+				ends[slot] = pos;
+				}
+		}
+
+		private int slot(long key)
+		{
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		}
+
+		/**
+		 * The slot holding key, or -1 if it isn't present
+		 */
+		private int find(long key)
+		{
+			int mask = keys.length - 1;
+
+			for (int slot = slot(key); ends[slot] != 0; slot = (slot + 1) & mask)
+				{
+				if (keys[slot] == key)
+					return slot;
+				}
+
+			return -1;
+		}
+	}
+
+	/**
+	 * Set of seed offsets, held as a bitset over a range of offsets. The bits are cleared
+	 * whenever the set is reset, so one set can be reused for every read.
+	 */
+	static class OffsetSet
+	{
+		static final int NONE = Integer.MAX_VALUE;
+
+		private long bits[] = new long[0];
+		private int words;
+		private int base;
+
+		/**
+		 * Empties the set, ready for offsets from minOffset to maxOffset inclusive
+		 */
+		void reset(int minOffset, int maxOffset)
+		{
+			Arrays.fill(bits, 0, words, 0L);
+
+			base = minOffset;
+			words = ((maxOffset - minOffset) >>> 6) + 1;
+
+			if (bits.length < words)
+				bits = new long[words];
+		}
+
+		void add(int offset)
+		{
+			int bit = offset - base;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+
+		int first()
+		{
+			return next(base);
+		}
+
+		/**
+		 * The smallest offset in the set which is at least from, or NONE if there isn't one
+		 */
+		int next(int from)
+		{
+			int bit = from - base;
+			int word = bit >>> 6;
+
+			if (word >= words)
+				return NONE;
+
+			long pending = bits[word] & (-1L << bit);
+
+			while (pending == 0)
+				{
+				if (++word == words)
+					return NONE;
+
+				pending = bits[word];
+				}
+
+			return base + (word << 6) + Long.numberOfTrailingZeros(pending);
 		}
 	}
 
@@ -515,101 +924,103 @@ public class IlluminaClippingTrimmer implements Trimmer
 			return pack;
 		}
 
-		abstract Integer readsSeqCompare(FastqRecord rec);
-		
+		/**
+		 * Whether the seed words of this sequence cover all 16 bases, so they can be indexed
+		 */
+		boolean hasFullSeeds()
+		{
+			return true;
+		}
+
+		/**
+		 * Distance in bases between the start of consecutive seed words
+		 */
+		int getSeedStride()
+		{
+			return 1;
+		}
+
+		/**
+		 * Adds the offsets at which a seed word of this sequence matches one of the read words from..to-1
+		 */
+		abstract void addSeedOffsets(long packRec[], int from, int to, OffsetSet offsetSet);
+
+		/**
+		 * The first of the seeded offsets, in ascending order, at which the sequence is accepted, or null if there is none
+		 */
+		Integer verifyOffsets(PackedRead read, OffsetSet offsetSet)
+		{
+			FastqRecord rec = read.rec;
+			String recSequence = read.sequence;
+			String clipSequence = seq;
+
+			for (int offset = offsetSet.first(); offset != OffsetSet.NONE; offset = offsetSet.next(offset + 1))
+				{
+				int recCompLength = offset > 0 ? recSequence.length() - offset : recSequence.length();
+				int clipCompLength = offset < 0 ? clipSequence.length() + offset : clipSequence.length();
+
+				int compLength = recCompLength < clipCompLength ? recCompLength : clipCompLength;
 
+				if (compLength > minSequenceOverlap)
+					{
+					float seqLikelihood = calculateDifferenceQuality(rec, clipSequence, compLength, offset);
+
+					if (seqLikelihood >= minSequenceLikelihood)
+						return offset;
+					}
+				}
+
+			return null;
+		}
+
+		/**
+		 * Scores the overlap between the read and the clipping sequence. Each base scores 0
+		 * for an N, minus a tenth of its quality for a mismatch and LOG10_4 for a match, and
+		 * the score is the best total of a run of bases with the same sign, or 0 if there is
+		 * no positive run. Runs are summed as the bases are scored, so nothing is allocated.
+		 */
 		float calculateDifferenceQuality(FastqRecord rec, String clipSeq, int overlap, int recOffset)
 		{
 			String seq = rec.getSequence();
-			int quals[] = rec.getQualityAsInteger(true);
+			byte quals[] = rec.getQualityScores();
+			int qualOffset = rec.getQualityScoresOffset();
 
 			int recPos = (recOffset > 0) ? recOffset : 0;
 			int clipPos = (recOffset < 0) ? -recOffset : 0;
 
-			float likelihood[] = new float[overlap];
+			float max = 0;
+			float total = 0;
 
 			for (int i = 0; i < overlap; i++)
 				{
 				char ch1 = seq.charAt(recPos);
 				char ch2 = clipSeq.charAt(clipPos);
 
+				float val;
+
 				if ((ch1 == 'N') || (ch2 == 'N'))
-					{
-					likelihood[i] = 0;
-					}
+					val = 0;
 				else if (ch1 != ch2)
-					{
-					likelihood[i] = -quals[recPos] / 10.0f;
-					}
+					val = -quals[qualOffset + recPos] / 10.0f;
 				else
-					likelihood[i] = LOG10_4;
-
-				recPos++;
-				clipPos++;
-				}
-
-			float l = calculateMaximumRange(likelihood);
-
-			return l;
-		}
+					val = LOG10_4;
 
-		private float calculateMaximumRange(float vals[])
-		{
-			List<Float> merges = new ArrayList<Float>();
-			float total = 0;
-
-			for (float val : vals)
-				{
 				if ((total > 0 && val < 0) || (total < 0 && val > 0))
 					{
-					merges.add(total);
+					if (total > max)
+						max = total;
+
 					total = val;
 					}
 				else
 					total += val;
-				}
-			merges.add(total);
-
-			boolean scanAgain = true;
-
-			while (merges.size() > 0 && scanAgain)
-				{
-				ListIterator<Float> mergeIter = merges.listIterator();
-				scanAgain = false;
-
-				while (mergeIter.hasNext())
-					{
-					float val = mergeIter.next();
-
-					if (val < 0 && mergeIter.hasPrevious() && mergeIter.hasNext())
-						{
-						float prev = mergeIter.previous();
-						mergeIter.next();
-						float next = mergeIter.next();
-
-						if ((prev > -val) && (next > -val))
-							{
-							mergeIter.remove();
-							mergeIter.previous();
-							mergeIter.remove();
-							mergeIter.previous();
-							mergeIter.set(prev + val + next);
-
-							scanAgain = true;
-							}
-						else
-							mergeIter.previous();
-						}
-					}
 
+				recPos++;
+				clipPos++;
 				}
 
-			float max = 0;
-			for (float val : merges)
-				{
-				if (val > max)
-					max = val;
-				}
+			if (total > max)
+				max = total;
 
 			return max;
 		}
@@ -633,23 +1044,23 @@ public class IlluminaClippingTrimmer implements Trimmer
 			return mask;
 		}
 
-		public Integer readsSeqCompare(FastqRecord rec)
+		@Override
+		boolean hasFullSeeds()
 		{
-			int seedMax = seedMaxMiss * 2;
-
-			String recSequence = rec.getSequence();
-			String clipSequence = seq;
+			return false;
+		}
 
-			Set<Integer> offsetSet = new TreeSet<Integer>();
+		@Override
+		void addSeedOffsets(long packRec[], int from, int to, OffsetSet offsetSet)
+		{
+			int seedMax = seedMaxMiss * 2;
 
-			long packRec[] = packSeqExternal(rec.getSequence());
 			long packClip[] = getPack();
 			long mask = getMask();
 
-			int packRecMax = packRec.length - minSequenceOverlap;
 			int packClipMax = packClip.length - minSequenceOverlap;
 
-			for (int i = 0; i < packRecMax; i++)
+			for (int i = from; i < to; i++)
 				{
 				long comboMask = calcSingleMask(packRec.length - i) & mask;
 
@@ -664,24 +1075,6 @@ public class IlluminaClippingTrimmer implements Trimmer
 						}
 					}
 				}
-
-			for (Integer offset : offsetSet)
-				{
-				int recCompLength = offset > 0 ? recSequence.length() - offset : recSequence.length();
-				int clipCompLength = offset < 0 ? clipSequence.length() + offset : clipSequence.length();
-
-				int compLength = recCompLength < clipCompLength ? recCompLength : clipCompLength;
-
-				if (compLength > minSequenceOverlap)
-					{
-					float seqLikelihood = calculateDifferenceQuality(rec, clipSequence, compLength, offset);
-
-					if (seqLikelihood >= minSequenceLikelihood)
-						return offset;
-					}
-				}
-
-			return null;
 		}
 	}
 
@@ -695,23 +1088,16 @@ public class IlluminaClippingTrimmer implements Trimmer
 			pack = packSeqInternal(seq, false);
 		}
 		
-		
-		public Integer readsSeqCompare(FastqRecord rec)
+		@Override
+		void addSeedOffsets(long packRec[], int from, int to, OffsetSet offsetSet)
 		{
 			int seedMax = seedMaxMiss * 2;
 
-			String recSequence = rec.getSequence();
-			String clipSequence = seq;
-
-			Set<Integer> offsetSet = new TreeSet<Integer>();
-
-			long packRec[] = packSeqExternal(rec.getSequence());
 			long packClip[] = getPack();
 
-			int packRecMax = packRec.length - minSequenceOverlap;
 			int packClipMax = packClip.length;
 
-			for (int i = 0; i < packRecMax; i++)
+			for (int i = from; i < to; i++)
 				{
 				long comboMask = calcSingleMask(packRec.length - i);
 
@@ -726,26 +1112,7 @@ public class IlluminaClippingTrimmer implements Trimmer
 						}
 					}
 				}
-
-			for (Integer offset : offsetSet)
-				{
-				int recCompLength = offset > 0 ? recSequence.length() - offset : recSequence.length();
-				int clipCompLength = offset < 0 ? clipSequence.length() + offset : clipSequence.length();
-
-				int compLength = recCompLength < clipCompLength ? recCompLength : clipCompLength;
-
-				if (compLength > minSequenceOverlap)
-					{
-					float seqLikelihood = calculateDifferenceQuality(rec, clipSequence, compLength, offset);
-
-					if (seqLikelihood >= minSequenceLikelihood)
-						return offset;
-					}
-				}
-
-			return null;
 		}
-		
 
 	}
 	
@@ -766,22 +1133,22 @@ public class IlluminaClippingTrimmer implements Trimmer
 				pack[i / INTERLEAVE] = fullPack[i];
 		}
 
-		public Integer readsSeqCompare(FastqRecord rec)
+		@Override
+		int getSeedStride()
 		{
-			int seedMax = seedMaxMiss * 2;
-
-			String recSequence = rec.getSequence();
-			String clipSequence = seq;
+			return INTERLEAVE;
+		}
 
-			Set<Integer> offsetSet = new TreeSet<Integer>();
+		@Override
+		void addSeedOffsets(long packRec[], int from, int to, OffsetSet offsetSet)
+		{
+			int seedMax = seedMaxMiss * 2;
 
-			long packRec[] = packSeqExternal(rec.getSequence());
 			long packClip[] = getPack();
 
-			int packRecMax = packRec.length - minSequenceOverlap;
 			int packClipMax = packClip.length;
 
-			for (int i = 0; i < packRecMax; i++)
+			for (int i = from; i < to; i++)
 				{
 				long comboMask = calcSingleMask(packRec.length - i);
 
@@ -796,24 +1163,6 @@ public class IlluminaClippingTrimmer implements Trimmer
 						}
 					}
 				}
-
-			for (Integer offset : offsetSet)
-				{
-				int recCompLength = offset > 0 ? recSequence.length() - offset : recSequence.length();
-				int clipCompLength = offset < 0 ? clipSequence.length() + offset : clipSequence.length();
-
-				int compLength = recCompLength < clipCompLength ? recCompLength : clipCompLength;
-
-				if (compLength > minSequenceOverlap)
-					{
-					float seqLikelihood = calculateDifferenceQuality(rec, clipSequence, compLength, offset);
-
-					if (seqLikelihood >= minSequenceLikelihood)
-						return offset;
-					}
-				}
-
-			return null;
 		}
 	}
 
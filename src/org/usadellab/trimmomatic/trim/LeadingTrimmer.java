@@ -1,8 +1,8 @@
 package org.usadellab.trimmomatic.trim;
 
-import org.usadellab.trimmomatic.fastq.FastqRecord;
+import org.usadellab.trimmomatic.util.QualityKernels;
 
-public class LeadingTrimmer extends AbstractSingleRecordTrimmer
+public class LeadingTrimmer extends AbstractWindowTrimmer
 {
     private int qual;
 
@@ -18,18 +18,14 @@ public class LeadingTrimmer extends AbstractSingleRecordTrimmer
         
 
     @Override
-    public FastqRecord processRecord(FastqRecord in)
+    protected boolean trimWindow(byte quals[], int offset, int window[])
     {
-            String seq=in.getSequence();
-            int quals[]=in.getQualityAsInteger(true);
+            int i=QualityKernels.findFirstAtLeast(quals, offset+window[0], offset+window[1], qual);
+            if(i<0)
+                    return false;
 
-            for(int i=0;i<seq.length();i++)
-                    {
-                    if(quals[i]>=qual)
-                            return new FastqRecord(in,i,seq.length()-i);
-                    }
-
-            return null;
+            window[0]=i-offset;
+            return true;
     }
 
 }
@@ -1,8 +1,6 @@
 package org.usadellab.trimmomatic.trim;
 
-import org.usadellab.trimmomatic.fastq.FastqRecord;
-
-public class MaximumInformationTrimmer extends AbstractSingleRecordTrimmer
+public class MaximumInformationTrimmer extends AbstractWindowTrimmer
 {
 	public static final int LONGEST_READ = 1000;
 	public static final int MAXQUAL=60;
@@ -80,9 +78,10 @@ public class MaximumInformationTrimmer extends AbstractSingleRecordTrimmer
 	}
     
 	@Override
-	public FastqRecord processRecord(FastqRecord in)
+	protected boolean trimWindow(byte quals[], int offset, int window[])
 	{
-		int quals[]=in.getQualityAsInteger(true);
+		offset+=window[0];
+		int len=window[1]-window[0];
 		
 		//double accumQuality=0;
 		long accumQuality=0;
@@ -90,9 +89,9 @@ public class MaximumInformationTrimmer extends AbstractSingleRecordTrimmer
 		double maxScore=-Double.MAX_VALUE;
 		int maxScorePosition=0;
 		
-		for(int i=0;i<quals.length;i++)
+		for(int i=0;i<len;i++)
 			{
-			int q=quals[i];
+			int q=quals[offset+i];
 			if(q<0)
 				q=0;
 			else if(q>MAXQUAL)
@@ -110,12 +109,10 @@ public class MaximumInformationTrimmer extends AbstractSingleRecordTrimmer
 			}
 		
 		if(maxScorePosition<1 || maxScore==0.0)
-			return null;
-		
-		if(maxScorePosition<quals.length)
-			return new FastqRecord(in,0,maxScorePosition);
+			return false;
 		
-		return in;
+		window[1]=window[0]+maxScorePosition;
+		return true;
 	}
 
 }
@@ -2,7 +2,7 @@ package org.usadellab.trimmomatic.trim;
 
 import org.usadellab.trimmomatic.fastq.FastqRecord;
 
-public class MinLenTrimmer extends AbstractSingleRecordTrimmer
+public class MinLenTrimmer extends AbstractWindowTrimmer
 {
 	private int minLen;
 
@@ -20,10 +20,22 @@ public class MinLenTrimmer extends AbstractSingleRecordTrimmer
 	@Override
 	public FastqRecord processRecord(FastqRecord in)
 	{
-		if(in.getSequence().length()>=minLen)
+		if(in.getLength()>=minLen)
 			return in;
 		
 		return null;
 	}
 
+	@Override
+	public boolean trimWindow(FastqRecord in, int window[])
+	{
+		return trimWindow(null, 0, window);
+	}
+
+	@Override
+	protected boolean trimWindow(byte quals[], int offset, int window[])
+	{
+		return window[1]-window[0]>=minLen;
+	}
+
 }
@@ -1,8 +1,8 @@
 package org.usadellab.trimmomatic.trim;
 
-import org.usadellab.trimmomatic.fastq.FastqRecord;
+import org.usadellab.trimmomatic.util.QualityKernels;
 
-public class SlidingWindowTrimmer extends AbstractSingleRecordTrimmer
+public class SlidingWindowTrimmer extends AbstractWindowTrimmer
 {
 	private int windowLength;
 	private float requiredQuality;
@@ -22,54 +22,40 @@ public class SlidingWindowTrimmer extends AbstractSingleRecordTrimmer
         totalRequiredQuality=requiredQuality*windowLength; // Convert to total
     }
 
-    /*
-     * @see org.usadellab.trimmomatic.trim.AbstractSingleRecordTrimmer#processRecord(org.usadellab.trimmomatic.fastq.FastqRecord)
-     */
 	@Override
-	public FastqRecord processRecord(FastqRecord in)
+	protected boolean trimWindow(byte quals[], int offset, int window[])
 	{
-		int quals[]=in.getQualityAsInteger(true);
+		offset+=window[0];
+		int len=window[1]-window[0];
 		
-		if(quals.length<windowLength)
-			return null;
+		if(len<windowLength)
+			return false;
 		
-		int total=0;
-		for(int i=0;i<windowLength;i++)
-			total+=quals[i];
+		int firstLow=QualityKernels.findFirstWindowBelow(quals, offset, offset+len, windowLength, totalRequiredQuality);
 		
-		if(total<totalRequiredQuality)
-			return null;
+		if(firstLow==offset)
+			return false;
 
-		
-		int lengthToKeep=quals.length;
-
-		for(int i=0;i<quals.length-windowLength;i++)
-            {
-            total=total-quals[i]+quals[i+windowLength];
-            if(total<totalRequiredQuality)
-                {
-                lengthToKeep=i+windowLength;
-                break;
-                }
-            }
+		// Keep up to the end of the last window before the first low quality window
+		int lengthToKeep=len;
+		if(firstLow>=0)
+			lengthToKeep=firstLow-offset-1+windowLength;
 				 
 		int i=lengthToKeep;
 		
-		int lastBaseQuality=quals[i-1];
+		int lastBaseQuality=quals[offset+i-1];
 		while(lastBaseQuality < requiredQuality && i > 1)
 			{
 			i--;
-			lastBaseQuality=quals[i-1];
+			lastBaseQuality=quals[offset+i-1];
 			}
 		
 
 		if(i<1)
-			return null;
-		
-		if(i<quals.length)
-			return new FastqRecord(in,0,i);
+			return false;
 		
-		return in;
+		window[1]=window[0]+i;
+		return true;
 	}
 
 }
@@ -1,8 +1,8 @@
 package org.usadellab.trimmomatic.trim;
 
-import org.usadellab.trimmomatic.fastq.FastqRecord;
+import org.usadellab.trimmomatic.util.QualityKernels;
 
-public class TrailingTrimmer extends AbstractSingleRecordTrimmer
+public class TrailingTrimmer extends AbstractWindowTrimmer
 {
 	private int qual;
 
@@ -17,17 +17,15 @@ public class TrailingTrimmer extends AbstractSingleRecordTrimmer
         
 
 	@Override
-	public FastqRecord processRecord(FastqRecord in)
+	protected boolean trimWindow(byte quals[], int offset, int window[])
 	{
-		int quals[]=in.getQualityAsInteger(true);
+		// The first base of the window is never tested, so a read trimmed to one base is dropped
+		int i=QualityKernels.findLastAtLeast(quals, offset+window[0]+1, offset+window[1], qual);
+		if(i<0)
+			return false;
 		
-		for(int i=quals.length-1;i>0;i--)
-			{
-			if(quals[i]>=qual)
-				return new FastqRecord(in,0,i+1);
-			}
-		
-		return null;
+		window[1]=i-offset+1;
+		return true;
 	}
 
 }
@@ -0,0 +1,120 @@
+package org.usadellab.trimmomatic.trim;
+
+import org.usadellab.trimmomatic.fastq.FastqBlock;
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+
+/**
+ * Runs a chain of trimmers over a read or read pair. Window trimmers only narrow the
+ * window of each read, so a record is built once at the end. Any other Trimmer is
+ * adapted by building the records for the current windows, running processRecords on
+ * them, and continuing with windows over the records it returns.
+ *
+ * Block trimmers at the start of the chain can instead be run over a whole block with
+ * processBlock(), leaving processRemainingRecords() to run the rest per read.
+ */
+public class TrimmerChain
+{
+	private Trimmer trimmers[];
+	private WindowTrimmer windowTrimmers[];
+	private BlockTrimmer blockTrimmers[];
+
+	public TrimmerChain(Trimmer trimmers[])
+	{
+		this.trimmers=trimmers;
+
+		windowTrimmers=new WindowTrimmer[trimmers.length];
+		for(int i=0;i<trimmers.length;i++)
+			{
+			if(trimmers[i] instanceof WindowTrimmer)
+				windowTrimmers[i]=(WindowTrimmer)trimmers[i];
+			}
+
+		int blockSteps=0;
+		while(blockSteps<trimmers.length && trimmers[blockSteps] instanceof BlockTrimmer)
+			blockSteps++;
+
+		blockTrimmers=new BlockTrimmer[blockSteps];
+		for(int i=0;i<blockSteps;i++)
+			blockTrimmers[i]=(BlockTrimmer)trimmers[i];
+	}
+
+	/**
+	 * Runs the block trimmers at the start of the chain over every read of block
+	 */
+	public void processBlock(FastqBlock block)
+	{
+		for(int i=0;i<blockTrimmers.length;i++)
+			blockTrimmers[i].processBlock(block);
+	}
+
+	/**
+	 * Trims in into out, with null for dropped reads. windows is scratch space holding one
+	 * int[2] per read, which callers can reuse between reads.
+	 */
+	public void processRecords(FastqRecord in[], FastqRecord out[], int windows[][])
+	{
+		processRecords(in, out, windows, 0);
+	}
+
+	/**
+	 * As processRecords, for reads which have already been through processBlock()
+	 */
+	public void processRemainingRecords(FastqRecord in[], FastqRecord out[], int windows[][])
+	{
+		processRecords(in, out, windows, blockTrimmers.length);
+	}
+
+	private void processRecords(FastqRecord in[], FastqRecord out[], int windows[][], int from)
+	{
+		for(int k=0;k<in.length;k++)
+			{
+			out[k]=in[k];
+			if(in[k]!=null)
+				{
+				windows[k][0]=0;
+				windows[k][1]=in[k].getLength();
+				}
+			}
+
+		for(int i=from;i<trimmers.length;i++)
+			{
+			WindowTrimmer windowTrimmer=windowTrimmers[i];
+
+			if(windowTrimmer!=null)
+				{
+				for(int k=0;k<out.length;k++)
+					{
+					if(out[k]!=null && !windowTrimmer.trimWindow(out[k], windows[k]))
+						out[k]=null;
+					}
+				}
+			else
+				{
+				for(int k=0;k<out.length;k++)
+					{
+					if(out[k]!=null)
+						out[k]=AbstractSingleRecordTrimmer.applyWindow(out[k], windows[k]);
+					}
+
+				FastqRecord trimmed[]=trimmers[i].processRecords(out);
+
+				for(int k=0;k<out.length;k++)
+					{
+					out[k]=trimmed[k];
+					if(out[k]!=null)
+						{
+						windows[k][0]=0;
+						windows[k][1]=out[k].getLength();
+						}
+					}
+				}
+			}
+
+		for(int k=0;k<out.length;k++)
+			{
+			if(out[k]!=null)
+				out[k]=AbstractSingleRecordTrimmer.applyWindow(out[k], windows[k]);
+			}
+	}
+
+}
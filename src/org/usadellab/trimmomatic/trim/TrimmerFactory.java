@@ -1,6 +1,8 @@
 package org.usadellab.trimmomatic.trim;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class TrimmerFactory
@@ -59,4 +61,39 @@ public class TrimmerFactory
 		
 		throw new RuntimeException("Unknown trimmer: "+trimmerName);
 	}
+
+	/**
+	 * Replaces each run of two or more consecutive window trimmers (such as LEADING,
+	 * TRAILING, SLIDINGWINDOW, AVGQUAL and MINLEN) with a single fused trimmer
+	 */
+	public Trimmer[] fuseTrimmers(Trimmer trimmers[])
+	{
+		List<Trimmer> fused=new ArrayList<Trimmer>();
+		List<WindowTrimmer> run=new ArrayList<WindowTrimmer>();
+
+		for(Trimmer trimmer: trimmers)
+			{
+			if(trimmer instanceof WindowTrimmer)
+				run.add((WindowTrimmer)trimmer);
+			else
+				{
+				addRun(fused, run);
+				fused.add(trimmer);
+				}
+			}
+
+		addRun(fused, run);
+
+		return fused.toArray(new Trimmer[fused.size()]);
+	}
+
+	private void addRun(List<Trimmer> fused, List<WindowTrimmer> run)
+	{
+		if(run.size()==1)
+			fused.add((Trimmer)run.get(0));
+		else if(run.size()>1)
+			fused.add(new FusedQualityTrimmer(run.toArray(new WindowTrimmer[run.size()])));
+
+		run.clear();
+	}
 }
@@ -0,0 +1,16 @@
+package org.usadellab.trimmomatic.trim;
+
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+
+/**
+ * Allocation free alternative to Trimmer for single record trimmers. Instead of building a
+ * new record, the trimmer narrows a window of the read, so a chain of them can run on two
+ * ints per read and build the trimmed record once at the end. See TrimmerChain.
+ */
+public interface WindowTrimmer
+{
+	/**
+	 * Narrows window, holding the start and end of the kept part of in. Returns false if the read is dropped.
+	 */
+	boolean trimWindow(FastqRecord in, int window[]);
+}
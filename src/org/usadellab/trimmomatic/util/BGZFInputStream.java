@@ -0,0 +1,275 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses BGZF (blocked gzip) input on a pool of threads. Each member carries its
+ * compressed size in the 'BC' extra field, so members can be split off without inflating
+ * them, inflated independently, and handed back in order.
+ */
+public class BGZFInputStream extends InputStream
+{
+	private static final int GZIP_ID1=0x1f;
+	private static final int GZIP_ID2=0x8b;
+	private static final int GZIP_CM_DEFLATE=8;
+	private static final int GZIP_FLG_FEXTRA=0x04;
+
+	private static final int HEADER_LENGTH=18;
+
+	private InputStream source;
+	private boolean sourceEOF;
+
+	private ExecutorService inflateExec;
+	private ArrayBlockingQueue<Inflater> inflaters;
+	private ArrayDeque<Future<byte[]>> pending;
+	private int maxPending;
+
+	private byte current[];
+	private int currentPos;
+
+	/**
+	 * Checks for a BGZF header at the current position of a stream supporting mark/reset
+	 */
+	public static boolean isBGZF(InputStream in) throws IOException
+	{
+		byte header[]=new byte[HEADER_LENGTH];
+
+		in.mark(HEADER_LENGTH);
+		int len=readFully(in, header, 0, HEADER_LENGTH);
+		in.reset();
+
+		return len==HEADER_LENGTH && isBGZFHeader(header);
+	}
+
+	private static boolean isBGZFHeader(byte header[])
+	{
+		return (header[0]&0xFF)==GZIP_ID1 && (header[1]&0xFF)==GZIP_ID2 && header[2]==GZIP_CM_DEFLATE
+				&& (header[3]&GZIP_FLG_FEXTRA)!=0 && header[12]=='B' && header[13]=='C'
+				&& header[14]==2 && header[15]==0;
+	}
+
+	private static int readFully(InputStream in, byte buf[], int off, int len) throws IOException
+	{
+		int total=0;
+
+		while(total<len)
+			{
+			int read=in.read(buf, off+total, len-total);
+			if(read<0)
+				break;
+			total+=read;
+			}
+
+		return total;
+	}
+
+	public BGZFInputStream(InputStream source, int threads)
+	{
+		this.source=source;
+
+		inflateExec=Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+			@Override
+			public Thread newThread(Runnable r)
+				{
+				Thread thread=new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+				}
+			});
+
+		inflaters=new ArrayBlockingQueue<Inflater>(threads);
+		for(int i=0;i<threads;i++)
+			inflaters.add(new Inflater(true));
+
+		maxPending=threads*4;
+		pending=new ArrayDeque<Future<byte[]>>(maxPending);
+
+		current=new byte[0];
+		currentPos=0;
+	}
+
+	private byte[] readBlock() throws IOException
+	{
+		byte header[]=new byte[HEADER_LENGTH];
+
+		int len=readFully(source, header, 0, HEADER_LENGTH);
+		if(len==0)
+			return null;
+
+		if(len<HEADER_LENGTH)
+			throw new EOFException("Truncated BGZF block header");
+
+		if(!isBGZFHeader(header))
+			throw new IOException("Invalid BGZF block header");
+
+		int blockSize=((header[16]&0xFF)|((header[17]&0xFF)<<8))+1;
+
+		byte block[]=new byte[blockSize];
+		System.arraycopy(header, 0, block, 0, HEADER_LENGTH);
+
+		if(readFully(source, block, HEADER_LENGTH, blockSize-HEADER_LENGTH)<blockSize-HEADER_LENGTH)
+			throw new EOFException("Truncated BGZF block");
+
+		return block;
+	}
+
+	private void fillPending() throws IOException
+	{
+		while(!sourceEOF && pending.size()<maxPending)
+			{
+			final byte block[]=readBlock();
+
+			if(block==null)
+				sourceEOF=true;
+			else
+				{
+				pending.add(inflateExec.submit(new Callable<byte[]>()
+					{
+					@Override
+					public byte[] call() throws Exception
+						{
+						return inflateBlock(block);
+						}
+					}));
+				}
+			}
+	}
+
+	private byte[] inflateBlock(byte block[]) throws IOException, InterruptedException
+	{
+		// Data starts after the full extra field, which may hold subfields other than BC
+		int dataStart=12+((block[10]&0xFF)|((block[11]&0xFF)<<8));
+		int trailerStart=block.length-8;
+
+		int crc=(block[trailerStart]&0xFF)|((block[trailerStart+1]&0xFF)<<8)|
+				((block[trailerStart+2]&0xFF)<<16)|((block[trailerStart+3]&0xFF)<<24);
+		int size=(block[trailerStart+4]&0xFF)|((block[trailerStart+5]&0xFF)<<8)|
+				((block[trailerStart+6]&0xFF)<<16)|((block[trailerStart+7]&0xFF)<<24);
+
+		byte out[]=new byte[size];
+
+		Inflater inflater=inflaters.take();
+		try
+			{
+			inflater.reset();
+			inflater.setInput(block, dataStart, trailerStart-dataStart);
+
+			int total=0;
+			while(total<size)
+				{
+				int read=inflater.inflate(out, total, size-total);
+				if(read==0 && (inflater.finished() || inflater.needsInput()))
+					break;
+				total+=read;
+				}
+
+			if(total!=size)
+				throw new IOException("BGZF block inflated to "+total+" bytes, expected "+size);
+			}
+		catch(DataFormatException e)
+			{
+			throw new IOException(e);
+			}
+		finally
+			{
+			inflaters.put(inflater);
+			}
+
+		CRC32 check=new CRC32();
+		check.update(out, 0, size);
+
+		if((int)check.getValue()!=crc)
+			throw new IOException("BGZF block CRC mismatch");
+
+		return out;
+	}
+
+	private boolean nextBlock() throws IOException
+	{
+		while(currentPos>=current.length)
+			{
+			fillPending();
+
+			Future<byte[]> future=pending.poll();
+			if(future==null)
+				return false;
+
+			try
+				{
+				current=future.get();
+				currentPos=0;
+				}
+			catch(InterruptedException e)
+				{
+				throw new IOException(e);
+				}
+			catch(ExecutionException e)
+				{
+				Throwable cause=e.getCause();
+				if(cause instanceof IOException)
+					throw (IOException)cause;
+				throw new IOException(cause);
+				}
+			}
+
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if(!nextBlock())
+			return -1;
+
+		return current[currentPos++]&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if(!nextBlock())
+			return -1;
+
+		int amount=current.length-currentPos;
+		if(amount>len)
+			amount=len;
+
+		System.arraycopy(current, currentPos, b, off, amount);
+		currentPos+=amount;
+
+		return amount;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		inflateExec.shutdownNow();
+
+		for(Future<byte[]> future: pending)
+			future.cancel(true);
+		pending.clear();
+
+		for(Inflater inflater: inflaters)
+			inflater.end();
+
+		source.close();
+	}
+
+}
@@ -0,0 +1,150 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes BGZF (blocked gzip) output. Data is cut into blocks which each become a
+ * complete gzip member of at most 64KB, carrying its size in the 'BC' extra field.
+ * The blocks are independent, so compress() makes them on whichever thread has the
+ * data, and the stream just writes them in order, followed by the standard empty
+ * end of file block.
+ */
+public class BGZFOutputStream extends BufferedOutputStream
+{
+	// Same input block size as htslib, which leaves room for incompressible data
+	public static final int BLOCK_DATA_SIZE=0xff00;
+	private static final int MAX_BLOCK_SIZE=65536;
+
+	private static final int HEADER_LENGTH=18;
+	private static final int TRAILER_LENGTH=8;
+
+	private static final byte EOF_BLOCK[]={0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)0xff, 6, 0, 'B', 'C', 2, 0,
+			0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+	// One deflater for each thread compressing blocks, reset for every block
+	private static final ThreadLocal<Deflater> deflaters=new ThreadLocal<Deflater>()
+		{
+		@Override
+		protected Deflater initialValue()
+			{
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			}
+		};
+
+	private boolean closed;
+
+	/**
+	 * @param out the stream receiving the blocks from compress(), written as given
+	 */
+	public BGZFOutputStream(OutputStream out)
+	{
+		super(out, MAX_BLOCK_SIZE);
+	}
+
+	/**
+	 * Compresses data into complete BGZF blocks on the calling thread
+	 */
+	public static byte[] compress(byte data[], int off, int len)
+	{
+		int blocks=(len+BLOCK_DATA_SIZE-1)/BLOCK_DATA_SIZE;
+		byte out[]=new byte[blocks*MAX_BLOCK_SIZE];
+		int outPos=0;
+
+		Deflater deflater=deflaters.get();
+		CRC32 crc=new CRC32();
+
+		for(int pos=off;pos<off+len;pos+=BLOCK_DATA_SIZE)
+			{
+			int blockLength=Math.min(BLOCK_DATA_SIZE, off+len-pos);
+			outPos=compressBlock(deflater, crc, data, pos, blockLength, out, outPos);
+			}
+
+		return Arrays.copyOf(out, outPos);
+	}
+
+	/**
+	 * Writes one BGZF block for data into member at memberPos, returning the position after it
+	 */
+	private static int compressBlock(Deflater deflater, CRC32 crc, byte data[], int off, int len, byte member[], int memberPos)
+	{
+		int limit=MAX_BLOCK_SIZE-HEADER_LENGTH-TRAILER_LENGTH;
+
+		int compressedLength=deflate(deflater, Deflater.DEFAULT_COMPRESSION, data, off, len, member, memberPos, limit);
+
+		// Incompressible data can expand past the block limit, so fall back to stored blocks
+		if(compressedLength<0)
+			compressedLength=deflate(deflater, Deflater.NO_COMPRESSION, data, off, len, member, memberPos, limit);
+
+		int blockSize=HEADER_LENGTH+compressedLength+TRAILER_LENGTH;
+
+		Arrays.fill(member, memberPos, memberPos+HEADER_LENGTH, (byte)0);
+		member[memberPos]=0x1f;
+		member[memberPos+1]=(byte)0x8b;
+		member[memberPos+2]=Deflater.DEFLATED;
+		member[memberPos+3]=4;
+		member[memberPos+9]=(byte)0xff;
+		member[memberPos+10]=6;
+		member[memberPos+12]='B';
+		member[memberPos+13]='C';
+		member[memberPos+14]=2;
+		writeShortLE(member, memberPos+16, blockSize-1);
+
+		crc.reset();
+		crc.update(data, off, len);
+
+		int trailerStart=memberPos+HEADER_LENGTH+compressedLength;
+		writeShortLE(member, trailerStart, (int)crc.getValue());
+		writeShortLE(member, trailerStart+2, (int)(crc.getValue()>>>16));
+		writeShortLE(member, trailerStart+4, len);
+		writeShortLE(member, trailerStart+6, 0);
+
+		return memberPos+blockSize;
+	}
+
+	/**
+	 * Deflates data into member after the header, returning the compressed length, or -1 if it doesn't fit within limit
+	 */
+	private static int deflate(Deflater deflater, int level, byte data[], int off, int len, byte member[], int memberPos, int limit)
+	{
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(data, off, len);
+		deflater.finish();
+
+		int start=memberPos+HEADER_LENGTH;
+		int total=0;
+		while(!deflater.finished() && total<limit)
+			total+=deflater.deflate(member, start+total, limit-total);
+
+		return deflater.finished() ? total : -1;
+	}
+
+	private static void writeShortLE(byte buf[], int off, int value)
+	{
+		buf[off]=(byte)value;
+		buf[off+1]=(byte)(value>>>8);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed=true;
+
+		try
+			{
+			write(EOF_BLOCK);
+			}
+		finally
+			{
+			super.close();
+			}
+	}
+
+}
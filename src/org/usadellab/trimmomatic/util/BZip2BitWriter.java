@@ -0,0 +1,123 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Collects bits, most significant first, into a growable byte array. Compressed bzip2 blocks are
+ * built in one of these on the worker threads, and then joined onto the stream as whole arrays,
+ * shifted to wherever the previous block ended.
+ */
+class BZip2BitWriter
+{
+	private byte data[];
+	private int length;
+
+	// Bits not yet making up a whole byte, in the low bits of the buffer
+	private long bitBuffer;
+	private int bitCount;
+
+	BZip2BitWriter(int capacity)
+	{
+		data=new byte[Math.max(capacity, 16)];
+	}
+
+	void writeBits(int count, int value)
+	{
+		bitBuffer=(bitBuffer<<count)|(value&((1L<<count)-1));
+		bitCount+=count;
+
+		if(bitCount>=8)
+			{
+			if(length+8>data.length)
+				data=Arrays.copyOf(data, data.length*2);
+
+			while(bitCount>=8)
+				{
+				bitCount-=8;
+				data[length++]=(byte)(bitBuffer>>>bitCount);
+				}
+			}
+	}
+
+	void writeBoolean(boolean value)
+	{
+		writeBits(1, value ? 1 : 0);
+	}
+
+	/**
+	 * Writes value one bits, followed by a zero bit
+	 */
+	void writeUnary(int value)
+	{
+		while(value>=24)
+			{
+			writeBits(24, 0xFFFFFF);
+			value-=24;
+			}
+
+		writeBits(value+1, ((1<<value)-1)<<1);
+	}
+
+	void writeInteger(int value)
+	{
+		writeBits(16, value>>>16);
+		writeBits(16, value);
+	}
+
+	/**
+	 * Appends all the bits of another writer
+	 */
+	void append(BZip2BitWriter other)
+	{
+		if(length+other.length+8>data.length)
+			data=Arrays.copyOf(data, Math.max(data.length*2, length+other.length+8));
+
+		byte source[]=other.data;
+		int sourceLength=other.length;
+
+		if(bitCount==0)
+			{
+			System.arraycopy(source, 0, data, length, sourceLength);
+			length+=sourceLength;
+			}
+		else
+			{
+			// Each source byte is split across two output bytes
+			int shift=bitCount;
+			int carry=(int)bitBuffer&((1<<shift)-1);
+
+			for(int i=0;i<sourceLength;i++)
+				{
+				int value=source[i]&0xFF;
+				data[length++]=(byte)((carry<<(8-shift))|(value>>>shift));
+				carry=value;
+				}
+
+			bitBuffer=carry;
+			}
+
+		if(other.bitCount>0)
+			writeBits(other.bitCount, (int)other.bitBuffer);
+	}
+
+	/**
+	 * Writes out the whole bytes collected so far, keeping any trailing bits
+	 */
+	void writeTo(OutputStream out) throws IOException
+	{
+		out.write(data, 0, length);
+		length=0;
+	}
+
+	/**
+	 * Pads the last byte with zero bits
+	 */
+	void pad()
+	{
+		if(bitCount>0)
+			writeBits(8-bitCount, 0);
+	}
+
+}
@@ -0,0 +1,430 @@
+package org.usadellab.trimmomatic.util;
+
+import java.util.Arrays;
+
+import org.itadaki.bzip2.CRC32;
+import org.itadaki.bzip2.HuffmanAllocator;
+
+/**
+ * Encodes a single bzip2 block, following the reference bzip2 encoder. The jbzip2 block
+ * compressor is not used, as its suffix sorter returns a wrong transform for some inputs.
+ */
+class BZip2BlockEncoder
+{
+	private static final int BLOCK_MAGIC_1=0x314159;
+	private static final int BLOCK_MAGIC_2=0x265359;
+
+	private static final int MAX_RUN_LENGTH=255;
+	private static final int MAX_RUN_ENCODED_LENGTH=5;
+
+	private static final int RUNA=0;
+	private static final int RUNB=1;
+
+	private static final int GROUP_SIZE=50;
+	private static final int MAX_TABLES=6;
+	private static final int TABLE_ITERATIONS=4;
+	private static final int MAX_CODE_LENGTH=17;
+
+	private byte block[];
+	private int blockLength;
+	private int blockLengthLimit;
+
+	private boolean inUse[]=new boolean[256];
+	private CRC32 crc=new CRC32();
+
+	/**
+	 * @param blockSize the block size of the stream, as given in the stream header
+	 */
+	BZip2BlockEncoder(int blockSize)
+	{
+		// Same margin as the reference encoder
+		blockLengthLimit=blockSize-19;
+		block=new byte[blockLengthLimit+BZip2BlockSort.OVERSHOOT];
+	}
+
+	/**
+	 * Run length encodes input into the block until it is full.
+	 *
+	 * @return the number of bytes taken from the input
+	 */
+	int write(byte data[], int offset, int length)
+	{
+		int pos=offset;
+		int end=offset+length;
+
+		while(pos<end && blockLength+MAX_RUN_ENCODED_LENGTH<=blockLengthLimit)
+			{
+			byte value=data[pos];
+			int runLength=1;
+
+			while(pos+runLength<end && runLength<MAX_RUN_LENGTH && data[pos+runLength]==value)
+				runLength++;
+
+			crc.updateCRC(value&0xFF, runLength);
+			inUse[value&0xFF]=true;
+
+			int copies=runLength<4 ? runLength : 4;
+			for(int i=0;i<copies;i++)
+				block[blockLength++]=value;
+
+			if(runLength>=4)
+				{
+				block[blockLength++]=(byte)(runLength-4);
+				inUse[runLength-4]=true;
+				}
+
+			pos+=runLength;
+			}
+
+		return pos-offset;
+	}
+
+	int getCRC()
+	{
+		return crc.getCRC();
+	}
+
+	/**
+	 * Writes the block, from the block header magic to the end of the Huffman coded data
+	 */
+	void close(BZip2BitWriter out)
+	{
+		int bwt[]=new int[blockLength];
+		int origin=new BZip2BlockSort(block, blockLength).sort(bwt);
+
+		out.writeBits(24, BLOCK_MAGIC_1);
+		out.writeBits(24, BLOCK_MAGIC_2);
+		out.writeInteger(crc.getCRC());
+		out.writeBoolean(false);
+		out.writeBits(24, origin);
+
+		int symbolIndex[]=new int[256];
+		int symbolCount=writeSymbolMap(out, symbolIndex);
+
+		int alphabetSize=symbolCount+2;
+		int frequencies[]=new int[alphabetSize];
+		char mtf[]=new char[blockLength+1];
+		int mtfLength=moveToFrontEncode(bwt, symbolIndex, symbolCount, mtf, frequencies);
+
+		writeHuffmanStage(out, mtf, mtfLength, frequencies, alphabetSize);
+	}
+
+	/**
+	 * Writes which byte values occur in the block, and numbers them in order
+	 */
+	private int writeSymbolMap(BZip2BitWriter out, int symbolIndex[])
+	{
+		int rangesInUse=0;
+		for(int i=0;i<16;i++)
+			for(int j=0;j<16;j++)
+				if(inUse[i*16+j])
+					rangesInUse|=1<<(15-i);
+
+		out.writeBits(16, rangesInUse);
+
+		int symbolCount=0;
+		for(int i=0;i<16;i++)
+			if((rangesInUse&(1<<(15-i)))!=0)
+				{
+				int valuesInUse=0;
+				for(int j=0;j<16;j++)
+					if(inUse[i*16+j])
+						{
+						valuesInUse|=1<<(15-j);
+						symbolIndex[i*16+j]=symbolCount++;
+						}
+
+				out.writeBits(16, valuesInUse);
+				}
+
+		return symbolCount;
+	}
+
+	/**
+	 * Move to front encodes the transform, with runs of zeros written in bijective base two
+	 * as RUNA and RUNB, and an end of block symbol last.
+	 */
+	private int moveToFrontEncode(int bwt[], int symbolIndex[], int symbolCount, char mtf[], int frequencies[])
+	{
+		byte order[]=new byte[symbolCount];
+		for(int i=0;i<symbolCount;i++)
+			order[i]=(byte)i;
+
+		int mtfLength=0;
+		int zeroRun=0;
+
+		for(int i=0;i<blockLength;i++)
+			{
+			byte value=(byte)symbolIndex[bwt[i]&0xFF];
+
+			if(order[0]==value)
+				{
+				zeroRun++;
+				continue;
+				}
+
+			if(zeroRun>0)
+				{
+				mtfLength=writeZeroRun(zeroRun, mtf, mtfLength, frequencies);
+				zeroRun=0;
+				}
+
+			int pos=1;
+			byte prev=order[0];
+			while(order[pos]!=value)
+				{
+				byte tmp=order[pos];
+				order[pos]=prev;
+				prev=tmp;
+				pos++;
+				}
+			order[pos]=prev;
+			order[0]=value;
+
+			mtf[mtfLength++]=(char)(pos+1);
+			frequencies[pos+1]++;
+			}
+
+		if(zeroRun>0)
+			mtfLength=writeZeroRun(zeroRun, mtf, mtfLength, frequencies);
+
+		mtf[mtfLength++]=(char)(symbolCount+1);
+		frequencies[symbolCount+1]++;
+
+		return mtfLength;
+	}
+
+	private static int writeZeroRun(int zeroRun, char mtf[], int mtfLength, int frequencies[])
+	{
+		zeroRun--;
+
+		while(true)
+			{
+			int symbol=(zeroRun&1)==0 ? RUNA : RUNB;
+			mtf[mtfLength++]=(char)symbol;
+			frequencies[symbol]++;
+
+			if(zeroRun<2)
+				break;
+
+			zeroRun=(zeroRun-2)>>>1;
+			}
+
+		return mtfLength;
+	}
+
+	private static void writeHuffmanStage(BZip2BitWriter out, char mtf[], int mtfLength, int frequencies[], int alphabetSize)
+	{
+		int tableCount;
+		if(mtfLength<200)
+			tableCount=2;
+		else if(mtfLength<600)
+			tableCount=3;
+		else if(mtfLength<1200)
+			tableCount=4;
+		else if(mtfLength<2400)
+			tableCount=5;
+		else
+			tableCount=MAX_TABLES;
+
+		int lengths[][]=new int[tableCount][alphabetSize];
+		initialCodeLengths(lengths, frequencies, mtfLength, alphabetSize);
+
+		int selectorCount=(mtfLength+GROUP_SIZE-1)/GROUP_SIZE;
+		byte selectors[]=new byte[selectorCount];
+		int tableFrequencies[][]=new int[tableCount][alphabetSize];
+
+		// Code lengths of the tables in pairs, one per half, so each symbol costs two tables in one add
+		int pairCount=(tableCount+1)/2;
+		int pairedLengths[][]=new int[pairCount][alphabetSize];
+		int pairedCosts[]=new int[pairCount];
+
+		// Assign each group to its cheapest table, then rebuild the tables from their groups
+		for(int iteration=0;iteration<TABLE_ITERATIONS;iteration++)
+			{
+			for(int t=0;t<tableCount;t++)
+				Arrays.fill(tableFrequencies[t], 0);
+
+			for(int p=0;p<pairCount;p++)
+				{
+				int low[]=lengths[2*p];
+				int high[]=2*p+1<tableCount ? lengths[2*p+1] : null;
+				for(int i=0;i<alphabetSize;i++)
+					pairedLengths[p][i]=low[i]|(high!=null ? high[i]<<16 : 0);
+				}
+
+			for(int group=0;group<selectorCount;group++)
+				{
+				int start=group*GROUP_SIZE;
+				int end=Math.min(start+GROUP_SIZE, mtfLength);
+
+				// A group costs at most 50 codes of 17 bits, which fits in each half
+				for(int p=0;p<pairCount;p++)
+					{
+					int tablePair[]=pairedLengths[p];
+					int cost=0;
+					for(int i=start;i<end;i++)
+						cost+=tablePair[mtf[i]];
+					pairedCosts[p]=cost;
+					}
+
+				int bestTable=0;
+				int bestCost=Integer.MAX_VALUE;
+				for(int t=0;t<tableCount;t++)
+					{
+					int cost=(pairedCosts[t>>1]>>>((t&1)*16))&0xFFFF;
+
+					if(cost<bestCost)
+						{
+						bestCost=cost;
+						bestTable=t;
+						}
+					}
+
+				selectors[group]=(byte)bestTable;
+				int bestFrequencies[]=tableFrequencies[bestTable];
+				for(int i=start;i<end;i++)
+					bestFrequencies[mtf[i]]++;
+				}
+
+			for(int t=0;t<tableCount;t++)
+				makeCodeLengths(tableFrequencies[t], lengths[t], alphabetSize);
+			}
+
+		out.writeBits(3, tableCount);
+		out.writeBits(15, selectorCount);
+
+		byte tableOrder[]=new byte[tableCount];
+		for(int t=0;t<tableCount;t++)
+			tableOrder[t]=(byte)t;
+
+		for(int group=0;group<selectorCount;group++)
+			{
+			byte selector=selectors[group];
+			int pos=0;
+			while(tableOrder[pos]!=selector)
+				pos++;
+
+			System.arraycopy(tableOrder, 0, tableOrder, 1, pos);
+			tableOrder[0]=selector;
+
+			out.writeUnary(pos);
+			}
+
+		int codes[][]=new int[tableCount][alphabetSize];
+		for(int t=0;t<tableCount;t++)
+			{
+			int tableLengths[]=lengths[t];
+
+			int current=tableLengths[0];
+			out.writeBits(5, current);
+
+			for(int i=0;i<alphabetSize;i++)
+				{
+				int length=tableLengths[i];
+				while(current<length)
+					{
+					out.writeBits(2, 2);
+					current++;
+					}
+				while(current>length)
+					{
+					out.writeBits(2, 3);
+					current--;
+					}
+				out.writeBoolean(false);
+				}
+
+			assignCodes(tableLengths, codes[t], alphabetSize);
+			}
+
+		for(int group=0;group<selectorCount;group++)
+			{
+			int start=group*GROUP_SIZE;
+			int end=Math.min(start+GROUP_SIZE, mtfLength);
+
+			int tableLengths[]=lengths[selectors[group]];
+			int tableCodes[]=codes[selectors[group]];
+
+			for(int i=start;i<end;i++)
+				{
+				int symbol=mtf[i];
+				out.writeBits(tableLengths[symbol], tableCodes[symbol]);
+				}
+			}
+	}
+
+	/**
+	 * Starting tables, each cheap for its own slice of the alphabet holding a similar share of
+	 * the symbols, as in the reference encoder.
+	 */
+	private static void initialCodeLengths(int lengths[][], int frequencies[], int mtfLength, int alphabetSize)
+	{
+		int tableCount=lengths.length;
+		int remaining=mtfLength;
+		int start=0;
+
+		for(int part=tableCount;part>0;part--)
+			{
+			int target=remaining/part;
+			int end=start-1;
+			int total=0;
+
+			while(total<target && end<alphabetSize-1)
+				total+=frequencies[++end];
+
+			if(end>start && part!=tableCount && part!=1 && ((tableCount-part)&1)==1)
+				total-=frequencies[end--];
+
+			int tableLengths[]=lengths[part-1];
+			for(int i=0;i<alphabetSize;i++)
+				tableLengths[i]=(i>=start && i<=end) ? 0 : 15;
+
+			start=end+1;
+			remaining-=total;
+			}
+	}
+
+	private static void makeCodeLengths(int frequencies[], int lengths[], int alphabetSize)
+	{
+		// Frequency in the high bits and symbol in the low nine, so sorting keeps track of the symbols
+		int merged[]=new int[alphabetSize];
+		for(int i=0;i<alphabetSize;i++)
+			merged[i]=(Math.max(frequencies[i], 1)<<9)|i;
+
+		Arrays.sort(merged);
+
+		int sorted[]=new int[alphabetSize];
+		for(int i=0;i<alphabetSize;i++)
+			sorted[i]=merged[i]>>>9;
+
+		HuffmanAllocator.allocateHuffmanCodeLengths(sorted, MAX_CODE_LENGTH);
+
+		for(int i=0;i<alphabetSize;i++)
+			lengths[merged[i]&0x1FF]=sorted[i];
+	}
+
+	/**
+	 * Canonical codes, in order of length and then symbol, as the decoder rebuilds them
+	 */
+	private static void assignCodes(int lengths[], int codes[], int alphabetSize)
+	{
+		int minLength=MAX_CODE_LENGTH;
+		int maxLength=0;
+		for(int i=0;i<alphabetSize;i++)
+			{
+			minLength=Math.min(minLength, lengths[i]);
+			maxLength=Math.max(maxLength, lengths[i]);
+			}
+
+		int code=0;
+		for(int length=minLength;length<=maxLength;length++)
+			{
+			for(int i=0;i<alphabetSize;i++)
+				if(lengths[i]==length)
+					codes[i]=code++;
+			code<<=1;
+			}
+	}
+
+}
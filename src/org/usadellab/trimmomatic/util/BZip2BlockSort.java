@@ -0,0 +1,558 @@
+package org.usadellab.trimmomatic.util;
+
+import java.util.Arrays;
+
+/**
+ * Sorts the rotations of a bzip2 block, following the block sort of the reference encoder. The
+ * rotations are bucketed on their first two bytes, each bucket is sorted by three way quicksort
+ * and shell sort, and the order of finished buckets is used to end long comparisons early. Small
+ * blocks, and blocks too repetitive to finish within the work budget, are sorted by prefix
+ * doubling instead.
+ */
+class BZip2BlockSort
+{
+	/**
+	 * Spare bytes needed after the block, which are filled with a copy of its start
+	 */
+	static final int OVERSHOOT=34;
+
+	private static final int MIN_MAIN_SORT_LENGTH=10000;
+	private static final int WORK_FACTOR=30;
+
+	private static final int RADIX_DEPTH=2;
+	private static final int QSORT_SMALL_THRESHOLD=20;
+	private static final int QSORT_DEPTH_THRESHOLD=RADIX_DEPTH+12;
+	private static final int QSORT_STACK_SIZE=100;
+
+	private static final int SET_MASK=1<<21;
+	private static final int CLEAR_MASK=~SET_MASK;
+
+	private static final int SHELL_INCREMENTS[]={1, 4, 13, 40, 121, 364, 1093, 3280, 9841, 29524, 88573, 265720, 797161,
+			2391484};
+
+	private byte block[];
+	private int blockLength;
+	private int ptr[];
+
+	private char quadrant[];
+	private int ftab[];
+	private int budget;
+
+	private int stackLo[]=new int[QSORT_STACK_SIZE];
+	private int stackHi[]=new int[QSORT_STACK_SIZE];
+	private int stackDepth[]=new int[QSORT_STACK_SIZE];
+
+	/**
+	 * @param block the block, with OVERSHOOT spare bytes after its end
+	 * @param blockLength the number of bytes in the block
+	 */
+	BZip2BlockSort(byte block[], int blockLength)
+	{
+		this.block=block;
+		this.blockLength=blockLength;
+	}
+
+	/**
+	 * Sorts the rotations of the block, filling bwt with the last column.
+	 *
+	 * @return the row of the unrotated block
+	 */
+	int sort(int bwt[])
+	{
+		int n=blockLength;
+		ptr=bwt;
+
+		boolean sorted=false;
+		if(n>=MIN_MAIN_SORT_LENGTH)
+			{
+			quadrant=new char[n+OVERSHOOT];
+			ftab=new int[65537];
+			budget=n*((WORK_FACTOR-1)/3);
+
+			mainSort();
+			sorted=budget>=0;
+
+			quadrant=null;
+			ftab=null;
+			}
+
+		if(!sorted)
+			sortRotations();
+
+		int origin=0;
+		for(int i=0;i<n;i++)
+			{
+			int pos=bwt[i];
+			if(pos==0)
+				origin=i;
+			bwt[i]=block[pos==0 ? n-1 : pos-1]&0xFF;
+			}
+
+		return origin;
+	}
+
+	private void mainSort()
+	{
+		byte block[]=this.block;
+		int ptr[]=this.ptr;
+		int ftab[]=this.ftab;
+		int n=blockLength;
+
+		for(int i=0;i<OVERSHOOT;i++)
+			block[n+i]=block[i%n];
+
+		// Bucket on the first two bytes of each rotation
+		int pair=(block[0]&0xFF)<<8;
+		for(int i=n-1;i>=0;i--)
+			{
+			pair=(pair>>>8)|((block[i]&0xFF)<<8);
+			ftab[pair]++;
+			}
+
+		for(int i=1;i<=65536;i++)
+			ftab[i]+=ftab[i-1];
+
+		pair=(block[0]&0xFF)<<8;
+		for(int i=n-1;i>=0;i--)
+			{
+			pair=(pair>>>8)|((block[i]&0xFF)<<8);
+			ptr[--ftab[pair]]=i;
+			}
+
+		// Big buckets, by first byte, are handled smallest first
+		int runningOrder[]=new int[256];
+		for(int i=0;i<256;i++)
+			runningOrder[i]=i;
+
+		int h=1;
+		while(h<=256)
+			h=3*h+1;
+
+		do
+			{
+			h=h/3;
+			for(int i=h;i<256;i++)
+				{
+				int value=runningOrder[i];
+				int j=i;
+				while(bigBucketSize(runningOrder[j-h])>bigBucketSize(value))
+					{
+					runningOrder[j]=runningOrder[j-h];
+					j-=h;
+					if(j<h)
+						break;
+					}
+				runningOrder[j]=value;
+				}
+			}
+		while(h!=1);
+
+		boolean bigDone[]=new boolean[256];
+		int copyStart[]=new int[256];
+		int copyEnd[]=new int[256];
+
+		for(int i=0;i<256;i++)
+			{
+			int ss=runningOrder[i];
+
+			// Sort the small buckets of this big bucket, except the one starting with the byte twice
+			for(int j=0;j<256;j++)
+				{
+				if(j!=ss)
+					{
+					int sb=(ss<<8)+j;
+					if((ftab[sb]&SET_MASK)==0)
+						{
+						int lo=ftab[sb]&CLEAR_MASK;
+						int hi=(ftab[sb+1]&CLEAR_MASK)-1;
+						if(hi>lo)
+							{
+							mainQSort3(lo, hi, RADIX_DEPTH);
+							if(budget<0)
+								return;
+							}
+						}
+					ftab[sb]|=SET_MASK;
+					}
+				}
+
+			// The sorted rotations, stepped back one byte, give the order of the unsorted buckets ending in ss
+			for(int j=0;j<256;j++)
+				{
+				copyStart[j]=ftab[(j<<8)+ss]&CLEAR_MASK;
+				copyEnd[j]=(ftab[(j<<8)+ss+1]&CLEAR_MASK)-1;
+				}
+
+			for(int j=ftab[ss<<8]&CLEAR_MASK;j<copyStart[ss];j++)
+				{
+				int k=ptr[j]-1;
+				if(k<0)
+					k+=n;
+				int c=block[k]&0xFF;
+				if(!bigDone[c])
+					ptr[copyStart[c]++]=k;
+				}
+
+			for(int j=(ftab[(ss+1)<<8]&CLEAR_MASK)-1;j>copyEnd[ss];j--)
+				{
+				int k=ptr[j]-1;
+				if(k<0)
+					k+=n;
+				int c=block[k]&0xFF;
+				if(!bigDone[c])
+					ptr[copyEnd[c]--]=k;
+				}
+
+			for(int j=0;j<256;j++)
+				ftab[(j<<8)+ss]|=SET_MASK;
+
+			bigDone[ss]=true;
+
+			// Record the order within the finished bucket, so later comparisons can stop at its rotations
+			if(i<255)
+				{
+				int bbStart=ftab[ss<<8]&CLEAR_MASK;
+				int bbSize=(ftab[(ss+1)<<8]&CLEAR_MASK)-bbStart;
+
+				int shifts=0;
+				while((bbSize>>shifts)>65534)
+					shifts++;
+
+				for(int j=bbSize-1;j>=0;j--)
+					{
+					int update=ptr[bbStart+j];
+					char value=(char)(j>>shifts);
+					quadrant[update]=value;
+					if(update<OVERSHOOT)
+						quadrant[update+n]=value;
+					}
+				}
+			}
+	}
+
+	private int bigBucketSize(int b)
+	{
+		return (ftab[(b+1)<<8]&CLEAR_MASK)-(ftab[b<<8]&CLEAR_MASK);
+	}
+
+	private void mainQSort3(int loStart, int hiStart, int dStart)
+	{
+		byte block[]=this.block;
+		int ptr[]=this.ptr;
+
+		int sp=0;
+		stackLo[sp]=loStart;
+		stackHi[sp]=hiStart;
+		stackDepth[sp]=dStart;
+		sp++;
+
+		while(sp>0)
+			{
+			sp--;
+			int lo=stackLo[sp];
+			int hi=stackHi[sp];
+			int d=stackDepth[sp];
+
+			if(hi-lo<QSORT_SMALL_THRESHOLD || d>QSORT_DEPTH_THRESHOLD)
+				{
+				mainSimpleSort(lo, hi, d);
+				if(budget<0)
+					return;
+				continue;
+				}
+
+			int med=median(block[ptr[lo]+d]&0xFF, block[ptr[hi]+d]&0xFF, block[ptr[(lo+hi)>>>1]+d]&0xFF);
+
+			int unLo=lo;
+			int ltLo=lo;
+			int unHi=hi;
+			int gtHi=hi;
+
+			while(true)
+				{
+				while(unLo<=unHi)
+					{
+					int diff=(block[ptr[unLo]+d]&0xFF)-med;
+					if(diff==0)
+						{
+						int tmp=ptr[unLo];
+						ptr[unLo]=ptr[ltLo];
+						ptr[ltLo]=tmp;
+						ltLo++;
+						unLo++;
+						}
+					else if(diff>0)
+						break;
+					else
+						unLo++;
+					}
+
+				while(unLo<=unHi)
+					{
+					int diff=(block[ptr[unHi]+d]&0xFF)-med;
+					if(diff==0)
+						{
+						int tmp=ptr[unHi];
+						ptr[unHi]=ptr[gtHi];
+						ptr[gtHi]=tmp;
+						gtHi--;
+						unHi--;
+						}
+					else if(diff<0)
+						break;
+					else
+						unHi--;
+					}
+
+				if(unLo>unHi)
+					break;
+
+				int tmp=ptr[unLo];
+				ptr[unLo]=ptr[unHi];
+				ptr[unHi]=tmp;
+				unLo++;
+				unHi--;
+				}
+
+			if(gtHi<ltLo)
+				{
+				// Every rotation had the median byte, so move on to the next one
+				stackLo[sp]=lo;
+				stackHi[sp]=hi;
+				stackDepth[sp]=d+1;
+				sp++;
+				continue;
+				}
+
+			int count=Math.min(ltLo-lo, unLo-ltLo);
+			swapRange(lo, unLo-count, count);
+			count=Math.min(hi-gtHi, gtHi-unHi);
+			swapRange(unLo, hi-count+1, count);
+
+			int lessEnd=lo+unLo-ltLo-1;
+			int greaterStart=hi-(gtHi-unHi)+1;
+
+			// Push the largest part first, so the stack stays shallow
+			int nextLo[]={lo, greaterStart, lessEnd+1};
+			int nextHi[]={lessEnd, hi, greaterStart-1};
+			int nextDepth[]={d, d, d+1};
+
+			if(nextHi[0]-nextLo[0]<nextHi[1]-nextLo[1])
+				swapPart(nextLo, nextHi, nextDepth, 0, 1);
+			if(nextHi[1]-nextLo[1]<nextHi[2]-nextLo[2])
+				swapPart(nextLo, nextHi, nextDepth, 1, 2);
+			if(nextHi[0]-nextLo[0]<nextHi[1]-nextLo[1])
+				swapPart(nextLo, nextHi, nextDepth, 0, 1);
+
+			for(int i=0;i<3;i++)
+				{
+				stackLo[sp]=nextLo[i];
+				stackHi[sp]=nextHi[i];
+				stackDepth[sp]=nextDepth[i];
+				sp++;
+				}
+			}
+	}
+
+	private static int median(int a, int b, int c)
+	{
+		if(a>b)
+			{
+			int tmp=a;
+			a=b;
+			b=tmp;
+			}
+
+		if(b>c)
+			{
+			b=c;
+			if(a>b)
+				b=a;
+			}
+
+		return b;
+	}
+
+	private void swapRange(int from, int to, int count)
+	{
+		int ptr[]=this.ptr;
+		for(int i=0;i<count;i++)
+			{
+			int tmp=ptr[from+i];
+			ptr[from+i]=ptr[to+i];
+			ptr[to+i]=tmp;
+			}
+	}
+
+	private static void swapPart(int lo[], int hi[], int depth[], int a, int b)
+	{
+		int tmp=lo[a];
+		lo[a]=lo[b];
+		lo[b]=tmp;
+
+		tmp=hi[a];
+		hi[a]=hi[b];
+		hi[b]=tmp;
+
+		tmp=depth[a];
+		depth[a]=depth[b];
+		depth[b]=tmp;
+	}
+
+	private void mainSimpleSort(int lo, int hi, int d)
+	{
+		int ptr[]=this.ptr;
+
+		int bigN=hi-lo+1;
+		if(bigN<2)
+			return;
+
+		int hp=0;
+		while(SHELL_INCREMENTS[hp]<bigN)
+			hp++;
+
+		for(hp--;hp>=0;hp--)
+			{
+			int h=SHELL_INCREMENTS[hp];
+
+			for(int i=lo+h;i<=hi;i++)
+				{
+				int value=ptr[i];
+				int j=i;
+				while(greaterThan(ptr[j-h]+d, value+d))
+					{
+					ptr[j]=ptr[j-h];
+					j-=h;
+					if(j<lo+h)
+						break;
+					}
+				ptr[j]=value;
+
+				if(budget<0)
+					return;
+				}
+			}
+	}
+
+	/**
+	 * Compares two rotations from the given offsets, first on 12 bytes, and then on bytes
+	 * and bucket order together, 8 at a time. Every round of 8 is charged to the work budget.
+	 */
+	private boolean greaterThan(int i1, int i2)
+	{
+		byte block[]=this.block;
+
+		for(int i=0;i<12;i++)
+			{
+			int c1=block[i1]&0xFF;
+			int c2=block[i2]&0xFF;
+			if(c1!=c2)
+				return c1>c2;
+			i1++;
+			i2++;
+			}
+
+		char quadrant[]=this.quadrant;
+		int n=blockLength;
+
+		for(int k=n+8;k>=0;k-=8)
+			{
+			for(int i=0;i<8;i++)
+				{
+				int c1=block[i1]&0xFF;
+				int c2=block[i2]&0xFF;
+				if(c1!=c2)
+					return c1>c2;
+
+				char s1=quadrant[i1];
+				char s2=quadrant[i2];
+				if(s1!=s2)
+					return s1>s2;
+
+				i1++;
+				i2++;
+				}
+
+			if(i1>=n)
+				i1-=n;
+			if(i2>=n)
+				i2-=n;
+
+			budget--;
+			}
+
+		return false;
+	}
+
+	/**
+	 * Sorts the rotations by prefix doubling, with counting sorts on the ranks of each half.
+	 */
+	private void sortRotations()
+	{
+		int n=blockLength;
+		int size=Math.max(n, 256);
+
+		int order[]=ptr;
+		int scratch[]=new int[n];
+		int rank[]=new int[n];
+		int newRank[]=new int[n];
+		int counts[]=new int[size+1];
+
+		for(int i=0;i<n;i++)
+			{
+			rank[i]=block[i]&0xFF;
+			counts[rank[i]+1]++;
+			}
+
+		for(int i=1;i<=size;i++)
+			counts[i]+=counts[i-1];
+
+		for(int i=0;i<n;i++)
+			order[counts[rank[i]]++]=i;
+
+		for(int h=1;h<n;h<<=1)
+			{
+			// Ordered by the second half, the rank of the rotation h further on
+			for(int i=0;i<n;i++)
+				{
+				int pos=order[i]-h;
+				scratch[i]=pos<0 ? pos+n : pos;
+				}
+
+			// Stable sort on the first half
+			Arrays.fill(counts, 0);
+			for(int i=0;i<n;i++)
+				counts[rank[i]+1]++;
+			for(int i=1;i<=size;i++)
+				counts[i]+=counts[i-1];
+			for(int i=0;i<n;i++)
+				{
+				int pos=scratch[i];
+				order[counts[rank[pos]]++]=pos;
+				}
+
+			int maxRank=0;
+			newRank[order[0]]=0;
+			for(int i=1;i<n;i++)
+				{
+				int cur=order[i];
+				int prev=order[i-1];
+				int curNext=cur+h<n ? cur+h : cur+h-n;
+				int prevNext=prev+h<n ? prev+h : prev+h-n;
+
+				if(rank[cur]!=rank[prev] || rank[curNext]!=rank[prevNext])
+					maxRank++;
+
+				newRank[cur]=maxRank;
+				}
+
+			int tmp[]=rank;
+			rank=newRank;
+			newRank=tmp;
+
+			if(maxRank==n-1)
+				break;
+			}
+	}
+
+}
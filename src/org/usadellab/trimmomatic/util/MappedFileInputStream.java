@@ -0,0 +1,138 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedFileInputStream extends InputStream
+{
+	// Mapped in windows, since a single MappedByteBuffer can't exceed 2GB
+	public static final long WINDOW_SIZE=1L<<28;
+
+	private FileInputStream fileInputStream;
+	private FileChannel channel;
+	private long fileLength;
+
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	private volatile long position;
+
+	public MappedFileInputStream(File file) throws IOException
+	{
+		this(file, 0, file.length());
+	}
+
+	public MappedFileInputStream(File file, long start, long end) throws IOException
+	{
+		this.fileInputStream=new FileInputStream(file);
+		this.channel=fileInputStream.getChannel();
+		this.fileLength=end;
+
+		this.windowStart=start;
+		this.position=start;
+
+		mapWindow();
+	}
+
+	private boolean mapWindow() throws IOException
+	{
+		long remaining=fileLength-windowStart;
+
+		if(remaining<=0)
+			{
+			window=null;
+			return false;
+			}
+
+		long size=remaining<WINDOW_SIZE ? remaining : WINDOW_SIZE;
+		window=channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+
+		return true;
+	}
+
+	private boolean ensureWindow() throws IOException
+	{
+		if(window==null)
+			return false;
+
+		if(window.hasRemaining())
+			return true;
+
+		windowStart+=window.capacity();
+		return mapWindow();
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if(!ensureWindow())
+			return -1;
+
+		position++;
+		return window.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if(!ensureWindow())
+			return -1;
+
+		int amount=window.remaining();
+		if(amount>len)
+			amount=len;
+
+		window.get(b, off, amount);
+		position=windowStart+window.position();
+
+		return amount;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped=0;
+
+		while(skipped<n && ensureWindow())
+			{
+			long amount=window.remaining();
+			if(amount>n-skipped)
+				amount=n-skipped;
+
+			window.position(window.position()+(int)amount);
+			skipped+=amount;
+			}
+
+		position=windowStart+(window!=null ? window.position() : 0);
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		long remaining=fileLength-position;
+
+		return remaining>Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)remaining;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		window=null;
+		channel.close();
+		fileInputStream.close();
+	}
+
+	public long getPosition()
+	{
+		return position;
+	}
+
+}
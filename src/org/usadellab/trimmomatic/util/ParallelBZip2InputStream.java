@@ -0,0 +1,501 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.itadaki.bzip2.BZip2BlockDecompressor;
+import org.itadaki.bzip2.BitInputStream;
+
+/**
+ * Decompresses bzip2 input on a pool of threads. Block boundaries are found ahead of
+ * the reader by scanning for the 48 bit block and end of stream magic numbers, each
+ * block is decoded independently with the jbzip2 block decompressor, and the output
+ * is handed back in order. Concatenated streams are supported.
+ *
+ * The block magic can occur by chance inside compressed data. A block which then
+ * fails to decode is retried with the following candidate range appended.
+ */
+public class ParallelBZip2InputStream extends InputStream
+{
+	private static final long BLOCK_MAGIC=0x314159265359L;
+	private static final long EOS_MAGIC=0x177245385090L;
+	private static final long MAGIC_MASK=0xFFFFFFFFFFFFL;
+
+	private static final int READ_SIZE=1048576;
+	private static final int MAX_MERGES=4;
+
+	private static final int STATE_HEADER=0;
+	private static final int STATE_MARKER=1;
+	private static final int STATE_SCAN=2;
+	private static final int STATE_DONE=3;
+
+	private InputStream source;
+	private boolean sourceEOF;
+
+	// Compressed data, starting at bit offset dataBase*8 of the input
+	private byte data[];
+	private long dataBase;
+	private int dataLength;
+
+	private int state;
+	private int blockSize;
+	private long bitPos;
+	private long blockStart;
+
+	private long scanBit;
+	private long scanReg;
+	private int scanCount;
+
+	private ExecutorService decodeExec;
+	private ArrayDeque<PendingBlock> pending;
+	private int maxPending;
+	private int streamCRC;
+
+	private byte current[];
+	private int currentPos;
+	private int currentLength;
+
+	public ParallelBZip2InputStream(InputStream source, int threads)
+	{
+		this.source=source;
+
+		data=new byte[READ_SIZE*2];
+		dataBase=0;
+		dataLength=0;
+
+		state=STATE_HEADER;
+		bitPos=0;
+
+		decodeExec=Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+			@Override
+			public Thread newThread(Runnable r)
+				{
+				Thread thread=new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+				}
+			});
+
+		maxPending=threads*2;
+		pending=new ArrayDeque<PendingBlock>(maxPending);
+
+		current=new byte[0];
+		currentPos=0;
+		currentLength=0;
+	}
+
+	private boolean readMore() throws IOException
+	{
+		if(sourceEOF)
+			return false;
+
+		// Drop data before the oldest position still needed
+		long keepFrom=(state==STATE_SCAN ? blockStart : bitPos)>>>3;
+		int discard=(int)(keepFrom-dataBase);
+
+		if(discard>0)
+			{
+			System.arraycopy(data, discard, data, 0, dataLength-discard);
+			dataLength-=discard;
+			dataBase+=discard;
+			}
+
+		if(data.length-dataLength<READ_SIZE)
+			data=Arrays.copyOf(data, data.length*2);
+
+		int read=source.read(data, dataLength, data.length-dataLength);
+		if(read<0)
+			{
+			sourceEOF=true;
+			return false;
+			}
+
+		dataLength+=read;
+		return true;
+	}
+
+	private boolean haveBits(long bitEnd) throws IOException
+	{
+		while(bitEnd>(dataBase+dataLength)<<3)
+			if(!readMore())
+				return false;
+
+		return true;
+	}
+
+	private long getBits(long bitOffset, int count)
+	{
+		long value=0;
+
+		for(int i=0;i<count;i++)
+			{
+			long bit=bitOffset+i;
+			int b=data[(int)((bit>>>3)-dataBase)];
+			value=(value<<1)|((b>>>(7-(bit&7)))&1);
+			}
+
+		return value;
+	}
+
+	/**
+	 * Scans forward from scanBit for the next block or end of stream magic, returning
+	 * the bit offset at which it starts, or -1 if more data is needed.
+	 */
+	private long scanForMagic()
+	{
+		long endBit=(dataBase+dataLength)<<3;
+
+		while(scanBit<endBit)
+			{
+			int b=data[(int)((scanBit>>>3)-dataBase)];
+			int bitInByte=(int)(scanBit&7);
+
+			for(int i=bitInByte;i<8;i++)
+				{
+				scanReg=(scanReg<<1)|((b>>>(7-i))&1);
+				scanBit++;
+
+				if(++scanCount>=48)
+					{
+					long magic=scanReg&MAGIC_MASK;
+					if(magic==BLOCK_MAGIC || magic==EOS_MAGIC)
+						return scanBit-48;
+					}
+				}
+			}
+
+		return -1;
+	}
+
+	private void startScan(long from)
+	{
+		scanBit=from;
+		scanReg=0;
+		scanCount=0;
+	}
+
+	/**
+	 * Advances the block scanner, queueing the next block for decoding. Returns false at the end of input.
+	 */
+	private boolean queueNextBlock() throws IOException
+	{
+		while(true)
+			{
+			switch(state)
+				{
+				case STATE_HEADER:
+					if(!haveBits(bitPos+32))
+						{
+						if(bitPos<(dataBase+dataLength)<<3)
+							throw new EOFException("Truncated bzip2 stream header");
+						state=STATE_DONE;
+						return false;
+						}
+
+					if(getBits(bitPos, 24)!=0x425A68)
+						throw new IOException("Invalid bzip2 stream header");
+
+					int level=(int)getBits(bitPos+24, 8)-'0';
+					if(level<1 || level>9)
+						throw new IOException("Invalid bzip2 block size");
+
+					blockSize=level*100000;
+					bitPos+=32;
+					state=STATE_MARKER;
+					break;
+
+				case STATE_MARKER:
+					if(!haveBits(bitPos+48))
+						throw new EOFException("Truncated bzip2 stream");
+
+					long marker=getBits(bitPos, 48);
+
+					if(marker==BLOCK_MAGIC)
+						{
+						blockStart=bitPos+48;
+						startScan(blockStart);
+						state=STATE_SCAN;
+						}
+					else if(marker==EOS_MAGIC)
+						{
+						if(!haveBits(bitPos+80))
+							throw new EOFException("Truncated bzip2 stream trailer");
+
+						pending.add(new PendingBlock((int)getBits(bitPos+48, 32)));
+						bitPos=(bitPos+80+7)&~7L;
+						state=STATE_HEADER;
+						return true;
+						}
+					else
+						throw new IOException("Invalid bzip2 block marker");
+					break;
+
+				case STATE_SCAN:
+					long next=scanForMagic();
+					if(next<0)
+						{
+						if(!readMore())
+							throw new EOFException("Truncated bzip2 block");
+						break;
+						}
+
+					// A false end of stream magic inside the block is skipped, and the scan carries on
+					if(getBits(next, 48)==EOS_MAGIC && !isStreamEnd(next))
+						break;
+
+					pending.add(submitBlock(blockStart, next));
+					bitPos=next;
+					state=STATE_MARKER;
+					return true;
+
+				default:
+					return false;
+				}
+			}
+	}
+
+	/**
+	 * Whether the end of stream magic at eosBit is followed, after its CRC and padding, by
+	 * either the end of input or the header of another stream
+	 */
+	private boolean isStreamEnd(long eosBit) throws IOException
+	{
+		long nextStream=(eosBit+80+7)&~7L;
+
+		if(!haveBits(nextStream+32))
+			return haveBits(nextStream) && !haveBits(nextStream+8);
+
+		int level=(int)getBits(nextStream+24, 8)-'0';
+
+		return getBits(nextStream, 24)==0x425A68 && level>=1 && level<=9;
+	}
+
+	private void fillPending() throws IOException
+	{
+		while(pending.size()<maxPending)
+			if(!queueNextBlock())
+				break;
+	}
+
+	private PendingBlock submitBlock(long startBit, long endBit)
+	{
+		final int shift=(int)(startBit&7);
+		final int size=blockSize;
+
+		// Include the following magic, so a retry can join this range onto the next one
+		int from=(int)((startBit>>>3)-dataBase);
+		int to=(int)(((endBit+48+7)>>>3)-dataBase);
+
+		final byte blockData[]=Arrays.copyOfRange(data, from, to);
+
+		Future<byte[]> future=decodeExec.submit(new Callable<byte[]>()
+			{
+			@Override
+			public byte[] call() throws Exception
+				{
+				return decodeBlock(blockData, shift, size);
+				}
+			});
+
+		return new PendingBlock(startBit, blockData, shift, size, future);
+	}
+
+	/**
+	 * Decodes a single block, returning its content followed by the 4 byte block CRC
+	 */
+	private static byte[] decodeBlock(byte blockData[], int shift, int blockSize) throws IOException
+	{
+		BitInputStream bitInputStream=new BitInputStream(new ByteArrayInputStream(blockData));
+		if(shift>0)
+			bitInputStream.readBits(shift);
+
+		BZip2BlockDecompressor decompressor=new BZip2BlockDecompressor(bitInputStream, blockSize);
+
+		byte out[]=new byte[blockSize+4];
+		int length=0;
+
+		while(true)
+			{
+			if(length==out.length-4)
+				out=Arrays.copyOf(out, out.length*2);
+
+			int read=decompressor.read(out, length, out.length-4-length);
+			if(read<0)
+				break;
+			length+=read;
+			}
+
+		int crc=decompressor.checkCRC();
+
+		out=Arrays.copyOf(out, length+4);
+		out[length]=(byte)(crc>>>24);
+		out[length+1]=(byte)(crc>>>16);
+		out[length+2]=(byte)(crc>>>8);
+		out[length+3]=(byte)crc;
+
+		return out;
+	}
+
+	private byte[] awaitBlock(PendingBlock block) throws IOException
+	{
+		try
+			{
+			return block.future.get();
+			}
+		catch(InterruptedException e)
+			{
+			throw new IOException(e);
+			}
+		catch(ExecutionException e)
+			{
+			// Possibly split at a false magic number: retry with the following ranges joined on
+			IOException failure=(e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+
+			byte joined[]=block.blockData;
+
+			for(int merges=0;merges<MAX_MERGES;merges++)
+				{
+				PendingBlock next=pending.peek();
+
+				while(next==null)
+					{
+					if(!queueNextBlock())
+						throw failure;
+					next=pending.peek();
+					}
+
+				if(next.future==null)
+					throw failure;
+
+				pending.poll();
+				next.future.cancel(true);
+
+				int overlap=(int)((next.startBit>>>3)-(block.startBit>>>3));
+				byte merged[]=Arrays.copyOf(joined, overlap+next.blockData.length);
+				System.arraycopy(next.blockData, 0, merged, overlap, next.blockData.length);
+				joined=merged;
+
+				try
+					{
+					return decodeBlock(joined, block.shift, block.blockSize);
+					}
+				catch(IOException retryFailure)
+					{
+					}
+				catch(RuntimeException retryFailure)
+					{
+					}
+				}
+
+			throw failure;
+			}
+	}
+
+	private boolean nextBlock() throws IOException
+	{
+		while(currentPos>=currentLength)
+			{
+			fillPending();
+
+			PendingBlock block=pending.poll();
+			if(block==null)
+				return false;
+
+			if(block.future==null)
+				{
+				if(block.streamCRC!=streamCRC)
+					throw new IOException("BZip2 stream CRC error");
+				streamCRC=0;
+				continue;
+				}
+
+			current=awaitBlock(block);
+			currentPos=0;
+			currentLength=current.length-4;
+
+			int blockCRC=((current[currentLength]&0xFF)<<24)|((current[currentLength+1]&0xFF)<<16)|
+					((current[currentLength+2]&0xFF)<<8)|(current[currentLength+3]&0xFF);
+
+			streamCRC=((streamCRC<<1)|(streamCRC>>>31))^blockCRC;
+			}
+
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if(!nextBlock())
+			return -1;
+
+		return current[currentPos++]&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		if(!nextBlock())
+			return -1;
+
+		int amount=currentLength-currentPos;
+		if(amount>len)
+			amount=len;
+
+		System.arraycopy(current, currentPos, b, off, amount);
+		currentPos+=amount;
+
+		return amount;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		decodeExec.shutdownNow();
+
+		for(PendingBlock block: pending)
+			if(block.future!=null)
+				block.future.cancel(true);
+		pending.clear();
+
+		source.close();
+	}
+
+	private static class PendingBlock
+	{
+		private long startBit;
+		private byte blockData[];
+		private int shift;
+		private int blockSize;
+		private Future<byte[]> future;
+
+		private int streamCRC;
+
+		private PendingBlock(long startBit, byte blockData[], int shift, int blockSize, Future<byte[]> future)
+		{
+			this.startBit=startBit;
+			this.blockData=blockData;
+			this.shift=shift;
+			this.blockSize=blockSize;
+			this.future=future;
+		}
+
+		private PendingBlock(int streamCRC)
+		{
+			this.streamCRC=streamCRC;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Compresses bzip2 output on a pool of threads. Input is cut into chunks of one block
+ * size, each encoded by a BZip2BlockEncoder into its own bit buffer, and the compressed
+ * blocks are then shifted into place and appended in order into a single bzip2 stream. The
+ * stream CRC is combined from the block CRCs as they are written.
+ */
+public class ParallelBZip2OutputStream extends OutputStream
+{
+	private static final int BLOCK_SIZE_MULTIPLIER=9;
+	private static final int BLOCK_SIZE=BLOCK_SIZE_MULTIPLIER*100000;
+
+	private static final int EOS_MAGIC_1=0x177245;
+	private static final int EOS_MAGIC_2=0x385090;
+
+	private OutputStream out;
+	private BZip2BitWriter bits;
+
+	private ExecutorService compressExec;
+	private ArrayDeque<Future<List<CompressedBlock>>> pending;
+	private int maxPending;
+
+	private byte chunk[];
+	private int chunkLength;
+
+	private int streamCRC;
+	private boolean closed;
+
+	public ParallelBZip2OutputStream(OutputStream out, int threads) throws IOException
+	{
+		this.out=out;
+		this.bits=new BZip2BitWriter(BLOCK_SIZE);
+
+		compressExec=Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+			@Override
+			public Thread newThread(Runnable r)
+				{
+				Thread thread=new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+				}
+			});
+
+		maxPending=threads*2;
+		pending=new ArrayDeque<Future<List<CompressedBlock>>>(maxPending);
+
+		chunk=new byte[BLOCK_SIZE];
+		chunkLength=0;
+
+		bits.writeBits(8, 'B');
+		bits.writeBits(8, 'Z');
+		bits.writeBits(8, 'h');
+		bits.writeBits(8, '0'+BLOCK_SIZE_MULTIPLIER);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if(chunkLength==chunk.length)
+			submitChunk();
+
+		chunk[chunkLength++]=(byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while(len>0)
+			{
+			if(chunkLength==chunk.length)
+				submitChunk();
+
+			int amount=chunk.length-chunkLength;
+			if(amount>len)
+				amount=len;
+
+			System.arraycopy(b, off, chunk, chunkLength, amount);
+			chunkLength+=amount;
+			off+=amount;
+			len-=amount;
+			}
+	}
+
+	private void submitChunk() throws IOException
+	{
+		if(chunkLength==0)
+			return;
+
+		final byte data[]=chunk;
+		final int length=chunkLength;
+
+		while(pending.size()>=maxPending)
+			writeCompleted();
+
+		pending.add(compressExec.submit(new Callable<List<CompressedBlock>>()
+			{
+			@Override
+			public List<CompressedBlock> call() throws Exception
+				{
+				return compressChunk(data, length);
+				}
+			}));
+
+		chunk=new byte[BLOCK_SIZE];
+		chunkLength=0;
+	}
+
+	/**
+	 * Compresses a chunk into one or more blocks. Run length encoding can expand the input,
+	 * so a chunk doesn't always fit in a single block.
+	 */
+	private static List<CompressedBlock> compressChunk(byte data[], int length)
+	{
+		List<CompressedBlock> blocks=new ArrayList<CompressedBlock>();
+
+		int offset=0;
+		while(offset<length)
+			{
+			CompressedBlock block=compressBlock(data, offset, length-offset);
+			blocks.add(block);
+			offset+=block.inputLength;
+			}
+
+		return blocks;
+	}
+
+	private static CompressedBlock compressBlock(byte data[], int offset, int length)
+	{
+		BZip2BitWriter bits=new BZip2BitWriter(length/3);
+
+		BZip2BlockEncoder encoder=new BZip2BlockEncoder(BLOCK_SIZE);
+		int inputLength=encoder.write(data, offset, length);
+		encoder.close(bits);
+
+		return new CompressedBlock(bits, encoder.getCRC(), inputLength);
+	}
+
+	private void writeCompleted() throws IOException
+	{
+		List<CompressedBlock> blocks;
+
+		try
+			{
+			blocks=pending.poll().get();
+			}
+		catch(InterruptedException e)
+			{
+			throw new IOException(e);
+			}
+		catch(ExecutionException e)
+			{
+			Throwable cause=e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			throw new IOException(cause);
+			}
+
+		for(CompressedBlock block: blocks)
+			{
+			bits.append(block.bits);
+			streamCRC=((streamCRC<<1)|(streamCRC>>>31))^block.crc;
+			}
+
+		bits.writeTo(out);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed=true;
+
+		try
+			{
+			submitChunk();
+
+			while(!pending.isEmpty())
+				writeCompleted();
+
+			bits.writeBits(24, EOS_MAGIC_1);
+			bits.writeBits(24, EOS_MAGIC_2);
+			bits.writeInteger(streamCRC);
+			bits.pad();
+			bits.writeTo(out);
+			}
+		finally
+			{
+			compressExec.shutdownNow();
+			out.close();
+			}
+	}
+
+	private static class CompressedBlock
+	{
+		private BZip2BitWriter bits;
+		private int crc;
+		private int inputLength;
+
+		private CompressedBlock(BZip2BitWriter bits, int crc, int inputLength)
+		{
+			this.bits=bits;
+			this.crc=crc;
+			this.inputLength=inputLength;
+		}
+	}
+
+}
@@ -0,0 +1,240 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses output into a single gzip member on a pool of threads, in the style of pigz.
+ * Data is cut into fixed size chunks, each deflated independently using the last 32KB of
+ * the previous chunk as a preset dictionary, and ended with a sync flush so the raw deflate
+ * outputs can simply be concatenated in order. Only the last chunk is finished.
+ */
+public class ParallelGZIPOutputStream extends OutputStream
+{
+	private static final int CHUNK_SIZE=131072;
+	private static final int DICTIONARY_SIZE=32768;
+
+	private static final byte GZIP_HEADER[]={0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+	private OutputStream out;
+
+	private ExecutorService deflateExec;
+	private ArrayBlockingQueue<Deflater> deflaters;
+	private ArrayDeque<Future<byte[]>> pending;
+	private int maxPending;
+
+	private byte chunk[];
+	private int chunkLength;
+	private byte previousChunk[];
+
+	private CRC32 crc;
+	private long totalLength;
+	private boolean closed;
+
+	public ParallelGZIPOutputStream(OutputStream out, int threads) throws IOException
+	{
+		this.out=out;
+
+		deflateExec=Executors.newFixedThreadPool(threads, new ThreadFactory()
+			{
+			@Override
+			public Thread newThread(Runnable r)
+				{
+				Thread thread=new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+				}
+			});
+
+		deflaters=new ArrayBlockingQueue<Deflater>(threads);
+		for(int i=0;i<threads;i++)
+			deflaters.add(new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+		maxPending=threads*2;
+		pending=new ArrayDeque<Future<byte[]>>(maxPending);
+
+		chunk=new byte[CHUNK_SIZE];
+		chunkLength=0;
+
+		crc=new CRC32();
+		totalLength=0;
+
+		out.write(GZIP_HEADER);
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		if(chunkLength==chunk.length)
+			submitChunk(false);
+
+		chunk[chunkLength++]=(byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		while(len>0)
+			{
+			if(chunkLength==chunk.length)
+				submitChunk(false);
+
+			int amount=chunk.length-chunkLength;
+			if(amount>len)
+				amount=len;
+
+			System.arraycopy(b, off, chunk, chunkLength, amount);
+			chunkLength+=amount;
+			off+=amount;
+			len-=amount;
+			}
+	}
+
+	private void submitChunk(final boolean last) throws IOException
+	{
+		final byte data[]=chunk;
+		final int length=chunkLength;
+		final byte dictionary[]=previousChunk;
+
+		crc.update(data, 0, length);
+		totalLength+=length;
+
+		while(pending.size()>=maxPending)
+			writeCompleted();
+
+		pending.add(deflateExec.submit(new Callable<byte[]>()
+			{
+			@Override
+			public byte[] call() throws Exception
+				{
+				return deflateChunk(data, length, dictionary, last);
+				}
+			}));
+
+		// The submitted chunk is still needed as the next dictionary, so it can't be reused
+		previousChunk=data;
+		chunk=new byte[CHUNK_SIZE];
+		chunkLength=0;
+	}
+
+	private byte[] deflateChunk(byte data[], int length, byte dictionary[], boolean last) throws InterruptedException
+	{
+		byte buf[]=new byte[length+(length>>3)+64];
+		int total=0;
+
+		Deflater deflater=deflaters.take();
+		try
+			{
+			deflater.reset();
+
+			if(dictionary!=null)
+				deflater.setDictionary(dictionary, dictionary.length-DICTIONARY_SIZE, DICTIONARY_SIZE);
+
+			deflater.setInput(data, 0, length);
+
+			if(last)
+				{
+				deflater.finish();
+				while(!deflater.finished())
+					{
+					if(total==buf.length)
+						buf=Arrays.copyOf(buf, buf.length*2);
+					total+=deflater.deflate(buf, total, buf.length-total);
+					}
+				}
+			else
+				{
+				// A sync flush is complete once deflate leaves space unused in the output
+				while(true)
+					{
+					if(total==buf.length)
+						buf=Arrays.copyOf(buf, buf.length*2);
+
+					int space=buf.length-total;
+					int count=deflater.deflate(buf, total, space, Deflater.SYNC_FLUSH);
+					total+=count;
+
+					if(count<space)
+						break;
+					}
+				}
+			}
+		finally
+			{
+			deflaters.put(deflater);
+			}
+
+		return Arrays.copyOf(buf, total);
+	}
+
+	private void writeCompleted() throws IOException
+	{
+		Future<byte[]> future=pending.poll();
+
+		try
+			{
+			out.write(future.get());
+			}
+		catch(InterruptedException e)
+			{
+			throw new IOException(e);
+			}
+		catch(ExecutionException e)
+			{
+			Throwable cause=e.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			throw new IOException(cause);
+			}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if(closed)
+			return;
+		closed=true;
+
+		try
+			{
+			submitChunk(true);
+
+			while(!pending.isEmpty())
+				writeCompleted();
+
+			byte trailer[]=new byte[8];
+			writeIntLE(trailer, 0, (int)crc.getValue());
+			writeIntLE(trailer, 4, (int)totalLength);
+			out.write(trailer);
+			}
+		finally
+			{
+			deflateExec.shutdownNow();
+
+			for(Deflater deflater: deflaters)
+				deflater.end();
+
+			out.close();
+			}
+	}
+
+	private static void writeIntLE(byte buf[], int off, int value)
+	{
+		buf[off]=(byte)value;
+		buf[off+1]=(byte)(value>>>8);
+		buf[off+2]=(byte)(value>>>16);
+		buf[off+3]=(byte)(value>>>24);
+	}
+
+}
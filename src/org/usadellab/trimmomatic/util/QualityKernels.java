@@ -0,0 +1,84 @@
+package org.usadellab.trimmomatic.util;
+
+/**
+ * The per-base loops over quality scores used by the fast trimmers and quality decoding,
+ * kept as plain loops which the JIT compiles well on its own.
+ *
+ * Ranges are given as [from, to) indexes into the array.
+ */
+public class QualityKernels
+{
+	private QualityKernels()
+	{
+	}
+
+	/**
+	 * Decodes len quality characters into scores, zeroing the scores of N bases
+	 */
+	public static void decode(byte seq[], int seqOffset, byte qual[], int qualOffset, byte out[], int outOffset, int len, int phredOffset)
+	{
+		for(int i=0;i<len;i++)
+			out[outOffset+i]=(byte)(seq[seqOffset+i]=='N' ? 0 : qual[qualOffset+i]-phredOffset);
+	}
+
+	/**
+	 * Index of the first score of at least threshold, or -1 if there is none
+	 */
+	public static int findFirstAtLeast(byte quals[], int from, int to, int threshold)
+	{
+		for(int i=from;i<to;i++)
+			{
+			if(quals[i]>=threshold)
+				return i;
+			}
+
+		return -1;
+	}
+
+	/**
+	 * Index of the last score of at least threshold, or -1 if there is none
+	 */
+	public static int findLastAtLeast(byte quals[], int from, int to, int threshold)
+	{
+		for(int i=to-1;i>=from;i--)
+			{
+			if(quals[i]>=threshold)
+				return i;
+			}
+
+		return -1;
+	}
+
+	public static int sum(byte quals[], int from, int to)
+	{
+		int total=0;
+
+		for(int i=from;i<to;i++)
+			total+=quals[i];
+
+		return total;
+	}
+
+	/**
+	 * Start of the first window of windowLength scores whose total is below required, or -1 if there is none
+	 */
+	public static int findFirstWindowBelow(byte quals[], int from, int to, int windowLength, float required)
+	{
+		if(to-from<windowLength)
+			return -1;
+
+		int total=sum(quals, from, from+windowLength);
+		if(total<required)
+			return from;
+
+		for(int i=from;i<to-windowLength;i++)
+			{
+			total=total-quals[i]+quals[i+windowLength];
+			if(total<required)
+				return i+1;
+			}
+
+		return -1;
+	}
+
+}
@@ -0,0 +1,191 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reads from the wrapped stream on a separate thread, so decompression can run
+ * while the consumer is parsing. Data is passed over in a fixed ring of reusable
+ * chunks: the reader takes free chunks and fills them, the consumer drains filled
+ * chunks and hands them back.
+ */
+public class ReadAheadInputStream extends InputStream
+{
+	public static final int CHUNK_SIZE=1048576;
+	public static final int CHUNK_COUNT=4;
+
+	private InputStream source;
+
+	private ArrayBlockingQueue<Chunk> freeChunks;
+	private ArrayBlockingQueue<Chunk> filledChunks;
+
+	private Chunk current;
+	private int currentPos;
+	private boolean atEOF;
+
+	private Thread readerThread;
+	private volatile IOException failure;
+
+	public ReadAheadInputStream(InputStream source)
+	{
+		this.source=source;
+
+		freeChunks=new ArrayBlockingQueue<Chunk>(CHUNK_COUNT);
+		filledChunks=new ArrayBlockingQueue<Chunk>(CHUNK_COUNT+1);
+
+		for(int i=0;i<CHUNK_COUNT;i++)
+			freeChunks.add(new Chunk(CHUNK_SIZE));
+
+		readerThread=new Thread(new Reader());
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	private boolean nextChunk() throws IOException
+	{
+		if(atEOF)
+			return false;
+
+		try
+			{
+			if(current!=null)
+				freeChunks.put(current);
+
+			current=filledChunks.take();
+			currentPos=0;
+			}
+		catch(InterruptedException e)
+			{
+			throw new IOException(e);
+			}
+
+		if(current.length<0)
+			{
+			atEOF=true;
+			current=null;
+
+			if(failure!=null)
+				throw failure;
+
+			return false;
+			}
+
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		while(current==null || currentPos>=current.length)
+			if(!nextChunk())
+				return -1;
+
+		return current.data[currentPos++]&0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len==0)
+			return 0;
+
+		while(current==null || currentPos>=current.length)
+			if(!nextChunk())
+				return -1;
+
+		int amount=current.length-currentPos;
+		if(amount>len)
+			amount=len;
+
+		System.arraycopy(current.data, currentPos, b, off, amount);
+		currentPos+=amount;
+
+		return amount;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		readerThread.interrupt();
+		source.close();
+	}
+
+	private static class Chunk
+	{
+		private byte data[];
+		private int length;
+
+		private Chunk(int size)
+		{
+			data=new byte[size];
+		}
+	}
+
+	private class Reader implements Runnable
+	{
+		@Override
+		public void run()
+		{
+			try
+				{
+				boolean done=false;
+
+				while(!done)
+					{
+					Chunk chunk=freeChunks.take();
+					int length=0;
+
+					try
+						{
+						while(length<chunk.data.length)
+							{
+							int read=source.read(chunk.data, length, chunk.data.length-length);
+							if(read<0)
+								{
+								done=true;
+								break;
+								}
+							length+=read;
+							}
+						}
+					catch(IOException e)
+						{
+						failure=e;
+						done=true;
+						}
+					catch(RuntimeException e)
+						{
+						// Decompressors such as jbzip2 throw unchecked exceptions on corrupt input
+						failure=new IOException(e);
+						done=true;
+						}
+					catch(Error e)
+						{
+						failure=new IOException(e);
+						done=true;
+						}
+
+					if(length>0)
+						{
+						chunk.length=length;
+						filledChunks.put(chunk);
+						}
+					}
+				}
+			catch(InterruptedException e)
+				{
+				// Closed before the end of input
+				}
+			finally
+				{
+				// Always ends the stream, so the consumer can't wait forever. There is room for
+				// the marker on top of every chunk, so this never blocks.
+				Chunk end=new Chunk(0);
+				end.length=-1;
+				filledChunks.offer(end);
+				}
+		}
+	}
+
+}
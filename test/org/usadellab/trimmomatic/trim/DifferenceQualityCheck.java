@@ -0,0 +1,190 @@
+package org.usadellab.trimmomatic.trim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+
+/**
+ * Compares the single pass calculateDifferenceQuality against the original version, which
+ * filled a likelihood array and merged its runs through a list, on random reads, clipping
+ * sequences and offsets. Matching stretches are copied from the read into the clipping
+ * sequence so that long positive runs occur.
+ *
+ * Usage: DifferenceQualityCheck [seed] [cases]
+ */
+public class DifferenceQualityCheck
+{
+	private static final float LOG10_4 = 0.60206f;
+
+	/**
+	 * The original implementation, kept here as the reference
+	 */
+	static float originalDifferenceQuality(FastqRecord rec, String clipSeq, int overlap, int recOffset)
+	{
+		String seq = rec.getSequence();
+		int quals[] = rec.getQualityAsInteger(true);
+
+		int recPos = (recOffset > 0) ? recOffset : 0;
+		int clipPos = (recOffset < 0) ? -recOffset : 0;
+
+		float likelihood[] = new float[overlap];
+
+		for (int i = 0; i < overlap; i++)
+			{
+			char ch1 = seq.charAt(recPos);
+			char ch2 = clipSeq.charAt(clipPos);
+
+			if ((ch1 == 'N') || (ch2 == 'N'))
+				{
+				likelihood[i] = 0;
+				}
+			else if (ch1 != ch2)
+				{
+				likelihood[i] = -quals[recPos] / 10.0f;
+				}
+			else
+				likelihood[i] = LOG10_4;
+
+			recPos++;
+			clipPos++;
+			}
+
+		return originalMaximumRange(likelihood);
+	}
+
+	private static float originalMaximumRange(float vals[])
+	{
+		List<Float> merges = new ArrayList<Float>();
+		float total = 0;
+
+		for (float val : vals)
+			{
+			if ((total > 0 && val < 0) || (total < 0 && val > 0))
+				{
+				merges.add(total);
+				total = val;
+				}
+			else
+				total += val;
+			}
+		merges.add(total);
+
+		boolean scanAgain = true;
+
+		while (merges.size() > 0 && scanAgain)
+			{
+			ListIterator<Float> mergeIter = merges.listIterator();
+			scanAgain = false;
+
+			while (mergeIter.hasNext())
+				{
+				float val = mergeIter.next();
+
+				if (val < 0 && mergeIter.hasPrevious() && mergeIter.hasNext())
+					{
+					float prev = mergeIter.previous();
+					mergeIter.next();
+					float next = mergeIter.next();
+
+					if ((prev > -val) && (next > -val))
+						{
+						mergeIter.remove();
+						mergeIter.previous();
+						mergeIter.remove();
+						mergeIter.previous();
+						mergeIter.set(prev + val + next);
+
+						scanAgain = true;
+						}
+					else
+						mergeIter.previous();
+					}
+				}
+
+			}
+
+		float max = 0;
+		for (float val : merges)
+			{
+			if (val > max)
+				max = val;
+			}
+
+		return max;
+	}
+
+	private static String randomBases(Random random, String alphabet, int length)
+	{
+		StringBuilder sb = new StringBuilder(length);
+
+		for (int i = 0; i < length; i++)
+			sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+
+		return sb.toString();
+	}
+
+	public static void main(String args[])
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		int cases = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+		Random random = new Random(seed);
+
+		IlluminaClippingTrimmer trimmer = new IlluminaClippingTrimmer(2, 30, 10, 8, false);
+		IlluminaClippingTrimmer.IlluminaClippingSeq clippingSeq = trimmer.new IlluminaMediumClippingSeq("ACGTACGTACGTACGTACGT");
+
+		int mismatches = 0;
+
+		for (int c = 0; c < cases; c++)
+			{
+			int length = 1 + random.nextInt(random.nextBoolean() ? 40 : 300);
+			int clipLength = 1 + random.nextInt(random.nextBoolean() ? 20 : 120);
+
+			// Small alphabets give long matching and mismatching runs
+			String alphabet = random.nextInt(4) == 0 ? "ACGTN" : (random.nextBoolean() ? "AC" : "ACGT");
+
+			String seq = randomBases(random, alphabet, length);
+
+			// Low qualities make mismatches cheap, so runs can be merged over them
+			boolean lowQuality = random.nextBoolean();
+			StringBuilder qual = new StringBuilder(length);
+			for (int i = 0; i < length; i++)
+				qual.append((char) (33 + random.nextInt(lowQuality ? 4 : 42)));
+
+			int offset = random.nextInt(length + clipLength) - clipLength;
+
+			StringBuilder clip = new StringBuilder(randomBases(random, alphabet, clipLength));
+			for (int i = 0; i < clipLength; i++)
+				{
+				if (offset + i >= 0 && offset + i < length && random.nextInt(10) > 1)
+					clip.setCharAt(i, seq.charAt(offset + i));
+				}
+
+			int recCompLength = offset > 0 ? length - offset : length;
+			int clipCompLength = offset < 0 ? clipLength + offset : clipLength;
+			int overlap = Math.max(Math.min(recCompLength, clipCompLength), 0);
+
+			FastqRecord rec = new FastqRecord("read", seq, "", qual.toString(), 33);
+			String clipSeq = clip.toString();
+
+			float expected = originalDifferenceQuality(rec, clipSeq, overlap, offset);
+			float actual = clippingSeq.calculateDifferenceQuality(rec, clipSeq, overlap, offset);
+
+			if (Float.floatToIntBits(expected) != Float.floatToIntBits(actual))
+				{
+				if (mismatches < 10)
+					System.err.println("Mismatch: expected " + expected + " got " + actual + " for " + seq + " " + clipSeq + " at " + offset);
+
+				mismatches++;
+				}
+			}
+
+		System.out.println(cases + " cases, " + mismatches + " mismatches");
+
+		if (mismatches > 0)
+			System.exit(1);
+	}
+}
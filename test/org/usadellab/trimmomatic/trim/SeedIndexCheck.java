@@ -0,0 +1,171 @@
+package org.usadellab.trimmomatic.trim;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.usadellab.trimmomatic.fastq.FastqRecord;
+
+/**
+ * Checks that the seed index finds the same clip as comparing every clipping sequence directly,
+ * for each seedMaxMiss, on the TruSeq3 adapters and on random sets of short, medium and long
+ * sequences. Reads carry copies of the sequences at random offsets, including past either end,
+ * with mismatches and N calls near the seed limit.
+ *
+ * Usage: SeedIndexCheck [seed] [reads per set]
+ */
+public class SeedIndexCheck
+{
+	private static final String TRUSEQ3[] = { "TACACTCTTTCCCTACACGACGCTCTTCCGATCT",
+			"GTGACTGGAGTTCAGACGTGTGCTCTTCCGATCT", "AGATCGGAAGAGCGTCGTGTAGGGAAAGAGTGTA",
+			"AGATCGGAAGAGCACACGTCTGAACTCCAGTCAC" };
+
+	private static String randomBases(Random random, int length)
+	{
+		StringBuilder sb = new StringBuilder(length);
+
+		for (int i = 0; i < length; i++)
+			sb.append("ACGT".charAt(random.nextInt(4)));
+
+		return sb.toString();
+	}
+
+	private static Set<IlluminaClippingTrimmer.IlluminaClippingSeq> clippingSet(IlluminaClippingTrimmer trimmer, List<String> seqs)
+	{
+		Set<IlluminaClippingTrimmer.IlluminaClippingSeq> out = new HashSet<IlluminaClippingTrimmer.IlluminaClippingSeq>();
+
+		// Each sequence announces itself on stderr, which would bury the result
+		PrintStream err = System.err;
+		System.setErr(new PrintStream(new OutputStream()
+			{
+			@Override
+			public void write(int b)
+				{
+				}
+			}));
+
+		for (String seq : seqs)
+			{
+			if (seq.length() < 16)
+				out.add(trimmer.new IlluminaShortClippingSeq(seq));
+			else if (seq.length() < 24)
+				out.add(trimmer.new IlluminaMediumClippingSeq(seq));
+			else
+				out.add(trimmer.new IlluminaLongClippingSeq(seq));
+			}
+
+		System.setErr(err);
+
+		return out;
+	}
+
+	private static FastqRecord randomRead(Random random, List<String> seqs, int seedMaxMiss)
+	{
+		int length = 1 + random.nextInt(random.nextBoolean() ? 40 : 160);
+		StringBuilder seq = new StringBuilder(randomBases(random, length));
+
+		int copies = random.nextInt(3);
+		for (int c = 0; c < copies; c++)
+			{
+			String clip = seqs.get(random.nextInt(seqs.size()));
+			int offset = random.nextInt(length + clip.length()) - clip.length();
+
+			for (int i = 0; i < clip.length(); i++)
+				{
+				if (offset + i >= 0 && offset + i < length)
+					seq.setCharAt(offset + i, clip.charAt(i));
+				}
+
+			// Errors around the seed limit, so some copies are just found and some just missed
+			int errors = random.nextInt(seedMaxMiss * 2 + 3);
+			for (int e = 0; e < errors; e++)
+				{
+				int pos = offset + random.nextInt(clip.length());
+				if (pos >= 0 && pos < length)
+					seq.setCharAt(pos, random.nextInt(5) == 0 ? 'N' : "ACGT".charAt(random.nextInt(4)));
+				}
+			}
+
+		StringBuilder qual = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			qual.append((char) (33 + random.nextInt(42)));
+
+		return new FastqRecord("read", seq.toString(), "", qual.toString(), 33);
+	}
+
+	public static void main(String args[])
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		int reads = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+		Random random = new Random(seed);
+
+		int cases = 0;
+		int clipped = 0;
+		int mismatches = 0;
+
+		for (int seedMaxMiss = 0; seedMaxMiss <= 2; seedMaxMiss++)
+			{
+			IlluminaClippingTrimmer trimmer = new IlluminaClippingTrimmer(seedMaxMiss, 30, 10, 8, false);
+
+			for (int set = 0; set < 12; set++)
+				{
+				List<String> seqs = new ArrayList<String>();
+
+				if (set == 0)
+					{
+					for (String seq : TRUSEQ3)
+						seqs.add(seq);
+					}
+				else
+					{
+					int count = 1 + random.nextInt(set < 6 ? 4 : 40);
+					for (int s = 0; s < count; s++)
+						{
+						int kind = random.nextInt(3);
+						int length = kind == 0 ? 4 + random.nextInt(12) : (kind == 1 ? 16 + random.nextInt(8) : 24 + random.nextInt(60));
+
+						seqs.add(randomBases(random, length));
+						}
+					}
+
+				Set<IlluminaClippingTrimmer.IlluminaClippingSeq> clippingSeqs = clippingSet(trimmer, seqs);
+				Set<IlluminaClippingTrimmer.IlluminaClippingSeq> empty = new HashSet<IlluminaClippingTrimmer.IlluminaClippingSeq>();
+
+				IlluminaClippingTrimmer.IlluminaSeedIndex indexed = trimmer.new IlluminaSeedIndex(clippingSeqs, empty, Boolean.TRUE);
+				IlluminaClippingTrimmer.IlluminaSeedIndex direct = trimmer.new IlluminaSeedIndex(clippingSeqs, empty, Boolean.FALSE);
+
+				for (int r = 0; r < reads; r++)
+					{
+					FastqRecord rec = randomRead(random, seqs, seedMaxMiss);
+					IlluminaClippingTrimmer.PackedRead read = new IlluminaClippingTrimmer.PackedRead(rec, false);
+
+					Integer expected = direct.findClip(read);
+					Integer actual = indexed.findClip(read);
+
+					cases++;
+
+					if (expected != null)
+						clipped++;
+
+					if (expected == null ? actual != null : !expected.equals(actual))
+						{
+						if (mismatches < 10)
+							System.err.println("Mismatch: expected " + expected + " got " + actual + " for " + rec.getSequence() + " with seedMaxMiss " + seedMaxMiss + " against " + seqs);
+
+						mismatches++;
+						}
+					}
+				}
+			}
+
+		System.out.println(cases + " cases, " + clipped + " clipped, " + mismatches + " mismatches");
+
+		if (mismatches > 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,327 @@
+package org.usadellab.trimmomatic.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.itadaki.bzip2.BZip2InputStream;
+import org.itadaki.bzip2.BZip2OutputStream;
+
+/**
+ * Compresses a set of inputs with ParallelBZip2OutputStream, on one thread and on several, and
+ * checks the output. Each stream is decoded by the jbzip2 reader and by ParallelBZip2InputStream,
+ * which both check the block and stream CRCs, and must give back the input. The stream CRC in the
+ * trailer is also compared with one computed here from the input.
+ *
+ * The inputs cover a 900KB slice of trimmed reads which the jbzip2 compressor corrupts, constant
+ * and periodic blocks, blocks too repetitive for the main sort, blocks split by run length
+ * expansion, small blocks and streams of several blocks.
+ *
+ * Usage: BZip2RoundTripCheck
+ */
+public class BZip2RoundTripCheck
+{
+	private static final int BLOCK_SIZE=900000;
+	private static final int BLOCK_LENGTH_LIMIT=BLOCK_SIZE-19;
+
+	private static final long EOS_MAGIC=0x177245385090L;
+
+	private static final String ADAPTER="AGATCGGAAGAGCACACGTCTGAACTCCAGTCAC";
+
+	private static int cases;
+	private static int failures;
+
+	/**
+	 * Reads in the layout of trimmed output: adapters followed by poly-A, some of them fully
+	 * random, with N calls and errors, and cut where a 4 base window falls below quality 15.
+	 */
+	static byte[] trimmedReads(long seed, int size)
+	{
+		Random random=new Random(seed);
+		ByteArrayOutputStream out=new ByteArrayOutputStream(size+1000);
+
+		int lengths[]={36, 50, 75, 100, 101, 150, 151};
+		StringBuilder seq=new StringBuilder();
+		StringBuilder qual=new StringBuilder();
+
+		for(int i=0;out.size()<size;i++)
+			{
+			int len=lengths[random.nextInt(lengths.length)];
+			int insert=10+random.nextInt(291);
+
+			seq.setLength(0);
+			for(int k=0;k<insert && seq.length()<len;k++)
+				seq.append("ACGT".charAt(random.nextInt(4)));
+			seq.append(ADAPTER);
+			while(seq.length()<len)
+				seq.append('A');
+			seq.setLength(len);
+
+			if(random.nextInt(10)<3)
+				for(int k=0;k<len;k++)
+					seq.setCharAt(k, "ACGT".charAt(random.nextInt(4)));
+
+			for(int k=0;k<len;k++)
+				{
+				double x=random.nextDouble();
+				if(x<0.01)
+					seq.setCharAt(k, 'N');
+				else if(x<0.03)
+					seq.setCharAt(k, "ACGT".charAt(random.nextInt(4)));
+				}
+
+			qual.setLength(0);
+			int base=20+random.nextInt(21);
+			for(int k=0;k<len;k++)
+				qual.append((char)(33+Math.max(2, Math.min(41, base-(int)(k*random.nextDouble()*0.3)+random.nextInt(13)-8))));
+
+			int keep=len;
+			for(int k=0;k+4<=len;k++)
+				{
+				int sum=0;
+				for(int j=k;j<k+4;j++)
+					sum+=qual.charAt(j)-33;
+
+				if(sum<60)
+					{
+					keep=k;
+					break;
+					}
+				}
+
+			if(keep<1)
+				continue;
+
+			String name="READ"+i+":"+insert;
+			String record="@"+name+" 1:N\n"+seq.substring(0, keep)+"\n+"+(random.nextInt(5)==0 ? name : "")+"\n"+
+					qual.substring(0, keep)+"\n";
+
+			byte bytes[]=record.getBytes();
+			out.write(bytes, 0, bytes.length);
+			}
+
+		return Arrays.copyOf(out.toByteArray(), size);
+	}
+
+	static byte[] repeat(byte pattern[], int size)
+	{
+		byte data[]=new byte[size];
+		for(int i=0;i<size;i++)
+			data[i]=pattern[i%pattern.length];
+		return data;
+	}
+
+	static byte[] randomBytes(long seed, int size, int alphabet)
+	{
+		Random random=new Random(seed);
+		byte data[]=new byte[size];
+		for(int i=0;i<size;i++)
+			data[i]=(byte)random.nextInt(alphabet);
+		return data;
+	}
+
+	static byte[] compress(byte data[], int threads) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream(data.length/3+100);
+		OutputStream stream=new ParallelBZip2OutputStream(out, threads);
+
+		// Uneven writes, so chunks are filled across calls
+		int pos=0;
+		int step=1;
+		while(pos<data.length)
+			{
+			int len=Math.min(step, data.length-pos);
+			stream.write(data, pos, len);
+			pos+=len;
+			step=step*7+1;
+			}
+
+		stream.close();
+		return out.toByteArray();
+	}
+
+	static byte[] readFully(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		byte buf[]=new byte[65536];
+
+		int len;
+		while((len=in.read(buf))>0)
+			out.write(buf, 0, len);
+
+		in.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * The bzip2 CRC, computed bit by bit
+	 */
+	static int crc(byte data[], int off, int len)
+	{
+		int crc=0xFFFFFFFF;
+		for(int i=off;i<off+len;i++)
+			{
+			crc^=(data[i]&0xFF)<<24;
+			for(int bit=0;bit<8;bit++)
+				crc=(crc<<1)^((crc&0x80000000)!=0 ? 0x04C11DB7 : 0);
+			}
+		return ~crc;
+	}
+
+	/**
+	 * The stream CRC expected for data. A block takes input until its run length encoding
+	 * might not fit, so runs are measured here to find where each block ends.
+	 */
+	static int expectedStreamCRC(byte data[])
+	{
+		int streamCRC=0;
+
+		int chunkStart=0;
+		while(chunkStart<data.length)
+			{
+			int chunkEnd=Math.min(chunkStart+BLOCK_SIZE, data.length);
+
+			int pos=chunkStart;
+			while(pos<chunkEnd)
+				{
+				int blockStart=pos;
+				int encoded=0;
+
+				while(pos<chunkEnd && encoded+5<=BLOCK_LENGTH_LIMIT)
+					{
+					int run=1;
+					while(pos+run<chunkEnd && run<255 && data[pos+run]==data[pos])
+						run++;
+
+					encoded+=run<4 ? run : 5;
+					pos+=run;
+					}
+
+				int blockCRC=crc(data, blockStart, pos-blockStart);
+				streamCRC=((streamCRC<<1)|(streamCRC>>>31))^blockCRC;
+				}
+
+			chunkStart=chunkEnd;
+			}
+
+		return streamCRC;
+	}
+
+	static long readBits(byte data[], long bitPos, int count)
+	{
+		long value=0;
+		for(int i=0;i<count;i++)
+			{
+			long pos=bitPos+i;
+			int bit=(data[(int)(pos>>>3)]>>>(7-(int)(pos&7)))&1;
+			value=(value<<1)|bit;
+			}
+		return value;
+	}
+
+	/**
+	 * Finds the end of stream magic before the final padding, and returns the CRC after it
+	 */
+	static Integer trailerCRC(byte compressed[])
+	{
+		long totalBits=compressed.length*8L;
+
+		for(int pad=0;pad<8;pad++)
+			{
+			long magicPos=totalBits-pad-80;
+			if(magicPos<32)
+				break;
+
+			if(readBits(compressed, magicPos, 48)==EOS_MAGIC && readBits(compressed, totalBits-pad, pad)==0)
+				return Integer.valueOf((int)readBits(compressed, magicPos+48, 32));
+			}
+
+		return null;
+	}
+
+	static void check(String name, byte data[]) throws IOException
+	{
+		for(int threads: new int[] {1, 4})
+			{
+			cases++;
+
+			String error=null;
+			try
+				{
+				byte compressed[]=compress(data, threads);
+
+				byte jbzip2[]=readFully(new BZip2InputStream(new ByteArrayInputStream(compressed), false));
+				byte parallel[]=readFully(new ParallelBZip2InputStream(new ByteArrayInputStream(compressed), 2));
+				Integer trailer=trailerCRC(compressed);
+
+				if(!Arrays.equals(data, jbzip2))
+					error="jbzip2 reader returned different data";
+				else if(!Arrays.equals(data, parallel))
+					error="parallel reader returned different data";
+				else if(trailer==null)
+					error="no end of stream trailer";
+				else if(trailer.intValue()!=expectedStreamCRC(data))
+					error="stream CRC does not match the input";
+				}
+			catch(IOException e)
+				{
+				error=e.toString();
+				}
+
+			if(error!=null)
+				{
+				failures++;
+				System.out.println("FAIL "+name+", "+threads+" threads: "+error);
+				}
+			}
+	}
+
+	/**
+	 * Whether the jbzip2 compressor fails to round trip data
+	 */
+	static boolean jbzip2Corrupts(byte data[])
+	{
+		try
+			{
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			OutputStream stream=new BZip2OutputStream(out);
+			stream.write(data);
+			stream.close();
+
+			byte decoded[]=readFully(new BZip2InputStream(new ByteArrayInputStream(out.toByteArray()), false));
+			return !Arrays.equals(data, decoded);
+			}
+		catch(Exception e)
+			{
+			return true;
+			}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		byte slice[]=trimmedReads(3, BLOCK_SIZE);
+		System.out.println("jbzip2 compressor corrupts the trimmed reads slice: "+jbzip2Corrupts(slice));
+
+		check("trimmed reads, one block", slice);
+		check("trimmed reads, several blocks", trimmedReads(4, 3200000));
+		check("constant", repeat(new byte[] {'A'}, 2000000));
+		check("runs of four", repeat("AAAAC".getBytes(), 1000000));
+		check("period 4", repeat("ACGT".getBytes(), BLOCK_SIZE));
+		check("period 1000", repeat(randomBytes(5, 1000, 4), BLOCK_SIZE));
+		check("period 100000", repeat(randomBytes(6, 100000, 256), 1000000));
+		check("random bytes", randomBytes(7, 1500000, 256));
+
+		for(int size: new int[] {0, 1, 2, 100, 9999, 10000, 10001})
+			check("random bases, "+size+" bytes", randomBytes(size, size, 4));
+
+		System.out.println(cases+" cases, "+failures+" failures");
+
+		if(failures>0)
+			System.exit(1);
+	}
+
+}